@@ -0,0 +1,96 @@
+import java.math.BigInteger;
+import java.security.SecureRandom;
+
+// The code under benchmark, see bench.Kernels.
+public class BenchKernels implements bench.Kernels {
+    private Field field = Field.of(Mersenne61Field.P_BIG);
+    private final SecureRandom sc = new SecureRandom();
+    private SecretSharing ss;
+    private ConnectionHolder holder;
+    private CompiledCircuit circuit;
+
+    @Override
+    public void setField(String F) {
+        field = Field.of(new BigInteger(F));
+    }
+
+    @Override
+    public long multiplyAdd(long[] a, long[] b) {
+        long sum = 0;
+        for (int i = 0; i < a.length; i++) {
+            sum = field.add(sum, field.multiply(a[i], b[i]));
+        }
+        return sum;
+    }
+
+    @Override
+    public long inverse(long a) {
+        return field.inverse(a);
+    }
+
+    @Override
+    public long[] randomElements(int count) {
+        long[] res = new long[count];
+        for (int i = 0; i < count; i++) {
+            res[i] = field.random(sc);
+        }
+        return res;
+    }
+
+    @Override
+    public void setParties(int n) {
+        ss = new SecretSharing(n, field);
+        holder = new ConnectionHolder(n, 0, new int[n], new String[n], field);
+    }
+
+    @Override
+    public long[] share(int degree, long secret) {
+        return ss.secretSharing(degree, secret);
+    }
+
+    @Override
+    public long[][] shareBatch(int degree, long[] secrets) {
+        return ss.secretSharing(degree, secrets);
+    }
+
+    @Override
+    public long interpolate(int degree, long[] shares) {
+        return ss.interpolation(degree, shares);
+    }
+
+    @Override
+    public void setWireFormat(String format) {
+        ConnectionHolder.wireFormat = WireFormat.valueOf(format);
+    }
+
+    @Override
+    public byte[] encode(long[] elements, int firstPid) {
+        ConnectionHolder.pid_and_element[] pidres = new ConnectionHolder.pid_and_element[elements.length];
+        for (int i = 0; i < elements.length; i++) {
+            pidres[i] = holder.new pid_and_element(firstPid + i, elements[i]);
+        }
+        return holder.encode(pidres, pidres.length);
+    }
+
+    // Both formats go through the path of a received frame, which decodes the elements and stores them in their slots.
+    @Override
+    public int decode(byte[] frame) {
+        holder.handleFrame(1, frame, frame.length);
+        return frame.length;
+    }
+
+    @Override
+    public void loadCircuit(String path) {
+        circuit = CompiledCircuit.compile(new ImportCircuit(field).importCircuit(path));
+    }
+
+    @Override
+    public int numberOfInputs() {
+        return circuit.numberOfInputs;
+    }
+
+    @Override
+    public long[] sweep(long[] inputs) {
+        return circuit.evaluatePlain(field, inputs);
+    }
+}
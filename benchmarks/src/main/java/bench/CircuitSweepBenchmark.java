@@ -0,0 +1,40 @@
+package bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/*
+Sweep over the levels of a compiled circuit evaluating every gate locally, which is the computation the protocols do
+between the communication rounds, in the Mersenne field and in GF(2^8) where the XOR gates are optimized into the
+linear gates. The circuits are read from the directory given by -Dcircuits (bin/Test_Circuits).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CircuitSweepBenchmark {
+    @Param({"AES-non-expanded", "mult_32x32"})
+    public String circuit;
+
+    @Param({"2305843009213693951", "256"})
+    public String F;
+
+    private Kernels kernels;
+    private long[] inputs;
+
+    @Setup
+    public void setup() {
+        kernels = Kernels.load();
+        kernels.setField(F);
+        kernels.loadCircuit(System.getProperty("circuits", "bin/Test_Circuits") + "/" + circuit + ".txt");
+        inputs = kernels.randomElements(kernels.numberOfInputs());
+    }
+
+    @Benchmark
+    public long[] sweep() {
+        return kernels.sweep(inputs);
+    }
+}
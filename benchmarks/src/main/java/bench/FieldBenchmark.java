@@ -0,0 +1,41 @@
+package bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+// Multiply-accumulate and inversion in the Mersenne field used by default, in a 31-bit prime field, and in GF(2^8) and
+// GF(2^32).
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FieldBenchmark {
+    @Param({"2305843009213693951", "2147483647", "256", "4294967296"})
+    public String F;
+
+    private Kernels kernels;
+    private long[] a;
+    private long[] b;
+
+    @Setup
+    public void setup() {
+        kernels = Kernels.load();
+        kernels.setField(F);
+        a = kernels.randomElements(1024);
+        b = kernels.randomElements(1024);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(1024)
+    public long multiplyAdd() {
+        return kernels.multiplyAdd(a, b);
+    }
+
+    @Benchmark
+    public long inverse() {
+        return kernels.inverse(a[17]);
+    }
+}
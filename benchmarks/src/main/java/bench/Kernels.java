@@ -0,0 +1,38 @@
+package bench;
+
+/*
+JMH does not accept benchmarks in the default package, and the protocols live in the default package where a named
+package can not import them from. The benchmarks therefore reach the code under test through this interface, which
+BenchKernels in the default package implements.
+ */
+public interface Kernels {
+    // Field arithmetic in the prime field F.
+    void setField(String F);
+    long multiplyAdd(long[] a, long[] b);
+    long inverse(long a);
+    long[] randomElements(int count);
+
+    // Secret sharing among n parties.
+    void setParties(int n);
+    long[] share(int degree, long secret);
+    long[][] shareBatch(int degree, long[] secrets);
+    long interpolate(int degree, long[] shares);
+
+    // Encoding of the share messages in the wire format "TEXT" or "BINARY".
+    void setWireFormat(String format);
+    byte[] encode(long[] elements, int firstPid);
+    int decode(byte[] frame);
+
+    // Evaluation of a compiled circuit, level by level.
+    void loadCircuit(String path);
+    int numberOfInputs();
+    long[] sweep(long[] inputs);
+
+    static Kernels load() {
+        try {
+            return (Kernels) Class.forName("BenchKernels").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("BenchKernels is not on the class path", e);
+        }
+    }
+}
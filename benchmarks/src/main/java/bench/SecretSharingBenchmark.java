@@ -0,0 +1,54 @@
+package bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+// Sharing and reconstruction for the degrees t and 2t used by the protocols.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SecretSharingBenchmark {
+    @Param({"3", "5", "9"})
+    public int n;
+
+    private Kernels kernels;
+    private int t;
+    private long[] secrets;
+    private long[] tShares;
+    private long[] two_tShares;
+
+    @Setup
+    public void setup() {
+        kernels = Kernels.load();
+        kernels.setParties(n);
+        t = (int) Math.ceil(n/2.0 - 1);
+        secrets = kernels.randomElements(1024);
+        tShares = kernels.share(t, secrets[0]);
+        two_tShares = kernels.share(2*t, secrets[0]);
+    }
+
+    @Benchmark
+    public long[] share() {
+        return kernels.share(t, secrets[1]);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(1024)
+    public long[][] shareBatch() {
+        return kernels.shareBatch(t, secrets);
+    }
+
+    @Benchmark
+    public long interpolate_t() {
+        return kernels.interpolate(t, tShares);
+    }
+
+    @Benchmark
+    public long interpolate_2t() {
+        return kernels.interpolate(2*t, two_tShares);
+    }
+}
@@ -0,0 +1,41 @@
+package bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+// Encoding of a message of 1024 shares, the size of a typical level of mult_32x32, and decoding it into the slots as
+// the receivers do.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WireFormatBenchmark {
+    @Param({"TEXT", "BINARY"})
+    public String format;
+
+    private Kernels kernels;
+    private long[] elements;
+    private byte[] frame;
+
+    @Setup
+    public void setup() {
+        kernels = Kernels.load();
+        kernels.setParties(3);
+        kernels.setWireFormat(format);
+        elements = kernels.randomElements(1024);
+        frame = kernels.encode(elements, 1000);
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        return kernels.encode(elements, 1000);
+    }
+
+    @Benchmark
+    public int decode() {
+        return kernels.decode(frame);
+    }
+}
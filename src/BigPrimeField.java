@@ -0,0 +1,128 @@
+import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+The field F_p for primes of more than 62 bits, whose elements do not fit in a long. The longs are references into a
+table of the elements as BigIntegers instead: equal elements get the same reference, so the protocols can still
+compare them as longs, and 0 and 1 are the references 0 and 1. The references only mean something in this JVM, so
+ConnectionHolder sends the elements themselves (see referencesElements), and all parties in one JVM share one field
+per prime. The table only grows, one entry per new element, so this is meant for checking the protocols with large
+primes rather than for long runs.
+ */
+public class BigPrimeField implements Field {
+    private static final ConcurrentHashMap<BigInteger, BigPrimeField> FIELDS = new ConcurrentHashMap<>();
+    private static final int CHUNK_BITS = 16;
+    private static final int CHUNK_MASK = (1 << CHUNK_BITS) - 1;
+
+    private final BigInteger P;
+    private final int bits;
+    private final ConcurrentHashMap<BigInteger, Long> references = new ConcurrentHashMap<>();
+    // The element of reference i is at chunks[i >> CHUNK_BITS][i & CHUNK_MASK].
+    private volatile BigInteger[][] chunks = new BigInteger[16][];
+    private int size;
+
+    static BigPrimeField of(BigInteger P) {
+        return FIELDS.computeIfAbsent(P, BigPrimeField::new);
+    }
+
+    private BigPrimeField(BigInteger P) {
+        this.P = P;
+        bits = P.bitLength();
+        reference(BigInteger.ZERO);
+        reference(BigInteger.ONE);
+    }
+
+    private long reference(BigInteger v) {
+        Long r = references.get(v);
+        return r != null ? r : references.computeIfAbsent(v, this::append);
+    }
+
+    private synchronized long append(BigInteger v) {
+        int i = size++;
+        int chunk = i >>> CHUNK_BITS;
+        if (chunk == chunks.length)
+            chunks = Arrays.copyOf(chunks, 2 * chunk);
+        if (chunks[chunk] == null)
+            chunks[chunk] = new BigInteger[1 << CHUNK_BITS];
+        chunks[chunk][i & CHUNK_MASK] = v;
+        return i;
+    }
+
+    private BigInteger value(long a) {
+        return chunks[(int) (a >>> CHUNK_BITS)][(int) a & CHUNK_MASK];
+    }
+
+    @Override
+    public long add(long a, long b) {
+        BigInteger s = value(a).add(value(b));
+        return reference(s.compareTo(P) >= 0 ? s.subtract(P) : s);
+    }
+
+    @Override
+    public long subtract(long a, long b) {
+        BigInteger s = value(a).subtract(value(b));
+        return reference(s.signum() < 0 ? s.add(P) : s);
+    }
+
+    @Override
+    public long multiply(long a, long b) {
+        return reference(value(a).multiply(value(b)).mod(P));
+    }
+
+    @Override
+    public long negate(long a) {
+        return a == 0 ? 0 : reference(P.subtract(value(a)));
+    }
+
+    @Override
+    public long inverse(long a) {
+        return reference(value(a).modInverse(P));
+    }
+
+    @Override
+    public long fromLong(long a) {
+        return reference(BigInteger.valueOf(a).mod(P));
+    }
+
+    @Override
+    public long fromBigInteger(BigInteger a) {
+        return reference(a.mod(P));
+    }
+
+    @Override
+    public BigInteger toBigInteger(long a) {
+        return value(a);
+    }
+
+    @Override
+    public long random(SecureRandom sc) {
+        BigInteger r;
+        do {
+            r = new BigInteger(bits, sc);
+        } while (r.compareTo(P) >= 0);
+        return reference(r);
+    }
+
+    // The 64 bits of r are not enough for an element, so all the bits come from sc.
+    @Override
+    public long random(long r, SecureRandom sc) {
+        return random(sc);
+    }
+
+    @Override
+    public int bitLength() {
+        return bits;
+    }
+
+    @Override
+    public long characteristic() {
+        return 0;
+    }
+
+    @Override
+    public boolean referencesElements() {
+        return true;
+    }
+}
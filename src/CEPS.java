@@ -1,9 +1,10 @@
 import java.math.BigInteger;
+import java.util.List;
 
 public class CEPS implements MPCProtocol {
     private int partyNr; // The party number of this instantiation
-    private BigInteger F; // prime generating field F
-    private BigInteger[] x; // inputs of party
+    private Field field; // the field F the circuit is evaluated in
+    private long[] x; // inputs of party
     private int t; // Maximum number of corrupted parties allowed
 
     public ConnectionHolder connections; // Connections to the other parties
@@ -13,178 +14,125 @@ public class CEPS implements MPCProtocol {
     // Constructor
     public CEPS(int partyNr, BigInteger F, BigInteger[] x, int n, String[] hostnames, int[] ports) {
         this.partyNr = partyNr;
-        this.F = F;
-        this.x = x;
+        field = Field.of(F);
+        this.x = new long[x.length];
+        for (int i = 0; i < x.length; i++) {
+            this.x[i] = field.fromBigInteger(x[i]);
+        }
         t = (int) Math.ceil( n/2.0-1 );
 
         // Instantiating the class which takes care of sending and receiving messages between parties.
-        connections = new ConnectionHolder(n, partyNr, ports, hostnames);
+        connections = new ConnectionHolder(n, partyNr, ports, hostnames, field);
 
         // Generating randomness
-        secretShare = new SecretSharing(n, F);
+        secretShare = new SecretSharing(n, field);
     }
 
     // calculating the number of inputs and the number of OWN inputs in the circuit.
-    private void calcNumberOfInputs(Gate[] circuit) {
-        int i = 0;
-        int j = 0;
-        while (true) {
-            if(circuit[i].getLabel() == partyNr) j++;
-
-            if(circuit[i].getType().equals(Type.INPUT)) i++;
-            else break;
-        }
-        numberOfInputs = i;
-        numberOfMyInputs =  j;
+    private void calcNumberOfInputs(CompiledCircuit circuit) {
+        numberOfInputs = circuit.numberOfInputs;
+        numberOfMyInputs = circuit.getNumberOfInputs(partyNr);
     }
 
     private int numberOfInputs; // Variable for keeping the track of the number of inputs
     private int numberOfMyInputs; // The number of inputs this party is providing
 
     // Secret Sharing of the inputs of the circuit
-    private void inputSharing(Gate[] circuit) {
-        int j = 0; // Keeps track of how far along we are in the inputs gates
+    private void inputSharing(CompiledCircuit circuit) {
         int i = 0; // Keeps track of how far along we are in sharing out OWN inputs.
 
-        // We are sending a Secret share of all our inputs.
-        connections.setNrOfElementsToSend(numberOfMyInputs); // Setting the number of elements to send so that they can be send efficiently.
+        // We are sending a Secret share of all our inputs in one batch.
+        RoundBatch batch = connections.openBatch();
 
         int pid = globalPid;
         // Send our own shares
-        while (true) {
-            Gate g = circuit[j];
-            if( !(g.getType().equals(Type.INPUT)) ) break;
-            int label = g.label;
-            if (partyNr == label) {
-                BigInteger[] mySS = secretShare.secretSharing(t, x[i]);
+        long[][] mySS = secretShare.secretSharing(t, x);
+        for (int j = 0; j < numberOfInputs; j++) {
+            if (partyNr == circuit.constant[j]) {
+                batch.addShares(mySS[i], pid);
                 i++;
-                connections.sendShares(mySS, pid);
             }
-            j++;
             pid++;
         }
-        j=0;
+        batch.close();
         // Receive the shares from all the parties
-        while(true) {
-            Gate g = circuit[j];
-            if( !(g.getType().equals(Type.INPUT)) ) break; // Break if there are no more input gates
-            int label = g.label;
-            BigInteger sharesReceived = connections.receiveFromPi(label, globalPid); // Receive the share from the designated party
+        for (int j = 0; j < numberOfInputs; j++) {
+            int label = circuit.constant[j];
+            circuit.value[j] = connections.receiveFromPi(label, globalPid); // Receive the share from the designated party
             globalPid++;
-
-            circuit[j].setValue(sharesReceived);
-            circuit[j].setComputed();
-            j++;
         }
-        connections.resetNrElementsToSend();
     }
 
-    private void computationPhase(Gate[] circuit) {
+    private void computationPhase(CompiledCircuit circuit) {
         /*
-           Iterate over all gates in the circuit.
-           We assume that the gates of the circuit are in computational order.
-           We evaluate the gates in parallel when they are ready, i.e. their input gates has been evaluated.
+           Iterate over the levels of the circuit.
+           The add and 'multiply by constant' gates of a level are computed locally, and then the multiplication
+           and output gates of the level are evaluated in parallel.
         */
-        int currentLvl = 1; // Current lvl -- 1 since the input layer is done.
-        for (int i = numberOfInputs; i < circuit.length; ) {
-            int numberOfMultiplicationGatesInLayer = 0; // Counter to keep track of the number of --multiplication-- gates
-            int numberOfOutputGatesInLayer = 0;// Counter to keep track of the number of --output-- gates
-            int j = i;
-
-            // Iterate over the gates of the current level of the circuit to get the number of multiplication and output gates
-            while (circuit[i].getLevel() == currentLvl) {
-                if (circuit[i].getType() == Type.MULT)
-                    numberOfMultiplicationGatesInLayer++;
-                if (circuit[i].getType() == Type.OUTPUT)
-                    numberOfOutputGatesInLayer++;
-                i++;
-                if (i == circuit.length)
-                    break;
-            }
-
-            // Computes the add and 'multiply by constant' gates and adds multiply and output gates to a list
-            // which are then evaluated in parallel later.
-            Gate[] multiplicationGates = new Gate[numberOfMultiplicationGatesInLayer];
-            Gate[] outputGates = new Gate[numberOfOutputGatesInLayer];
-            int multiplicationCounter = 0;
-            int outCounter = 0;
-            // Evaluate the gates.
-            for (int k = j; k < i; k++) {
-                Gate g = circuit[k];
-                Type type = g.getType();
-                switch (type) {
-                    case ADD:
-                        g.setValue(add(g));
-                        g.setComputed();
+        int[] opcode = circuit.opcode;
+        int[] in0 = circuit.in0;
+        int[] in1 = circuit.in1;
+        long[] value = circuit.value;
+        // Shares of the constant 1, for the constant terms of the LINEAR gates.
+        long one = field.fromLong(1);
+        // Level 0 is the input layer which is done.
+        for (int lvl = 1; lvl < circuit.numberOfLevels; lvl++) {
+            // Evaluate the add and 'multiply by constant' gates.
+            for (int k = circuit.levelStart[lvl]; k < circuit.levelStart[lvl+1]; k++) {
+                switch (opcode[k]) {
+                    case CompiledCircuit.ADD:
+                        value[k] = field.add(value[in0[k]], value[in1[k]]);
                         break;
 
-                    case CONST:
-                        g.setValue(multiplyByConstant(g));
-                        g.setComputed();
+                    case CompiledCircuit.CONST:
+                        value[k] = field.multiply(value[in0[k]], field.fromLong(circuit.constant[k]));
                         break;
 
-                    case MULT:
-                        multiplicationGates[multiplicationCounter] = g;
-                        multiplicationCounter++;
+                    case CompiledCircuit.LINEAR:
+                        value[k] = circuit.linear(field, value, k, one);
                         break;
 
-                    case OUTPUT:
-                        outputGates[outCounter] = g;
-                        outCounter++;
-                        break;
-
-                    case INPUT:
+                    case CompiledCircuit.INPUT:
                         System.out.println("ERROR");
                         break;
                 }
             }
-            currentLvl++; // Moving on to the next level of the circuit
+            int numberOfMultiplicationGatesInLayer = circuit.multStart[lvl+1] - circuit.multStart[lvl]
+                    + circuit.dotStart[lvl+1] - circuit.dotStart[lvl];
+            int numberOfOutputGatesInLayer = circuit.outputStart[lvl+1] - circuit.outputStart[lvl];
 
             // If there is no mult gates we are done, else we have to compute their value.
-            if (numberOfMultiplicationGatesInLayer == 0 && outCounter == 0)
+            if (numberOfMultiplicationGatesInLayer == 0 && numberOfOutputGatesInLayer == 0)
                 continue;
 
             // Output reconstruction
-            if (outCounter > 0) {
-                EvaluateOutputGates(numberOfOutputGatesInLayer, outCounter, outputGates);
+            if (numberOfOutputGatesInLayer > 0) {
+                EvaluateOutputGates(circuit, lvl);
                 break;
             }
 
             // Evaluate multiplication gates
-            EvaluateMultiplicationGates(numberOfMultiplicationGatesInLayer, multiplicationGates);
+            EvaluateMultiplicationGates(circuit, lvl);
         }
     }
 
-    // Evaluating addition gate.
-    private BigInteger add(Gate g) {
-        Gate[] inputs = g.getIn();
-        return ((inputs[0].getValue()).add(inputs[1].getValue())).mod(F);
-    }
-
-    // Evaluating multiplication by constant gate.
-    private BigInteger multiplyByConstant(Gate g) {
-        BigInteger input = (g.getIn()[0]).getValue();
-
-        BigInteger labelOfConstant = new BigInteger(Integer.toString(g.getLabel()));
-
-        return (input.multiply(labelOfConstant)).mod(F);
-    }
-
-
     // Evaluating output gates
-    public void  EvaluateOutputGates(int numberOfOutputGatesInLayer, int outCounter, Gate[] outs) {
-        connections.setNrOfElementsToSend(numberOfOutputGatesInLayer);
+    public void EvaluateOutputGates(CompiledCircuit circuit, int lvl) {
+        int from = circuit.outputStart[lvl];
+        int to = circuit.outputStart[lvl+1];
+        RoundBatch batch = connections.openBatch();
         int pid = globalPid;
-        for (int k = 0; k < outCounter; k++) {
-            Gate g = outs[k];
-            BigInteger share = ((g.getIn())[0]).getValue();
-            connections.sendElementToAll(share, pid);
+        for (int k = from; k < to; k++) {
+            int g = circuit.outputs[k];
+            long share = circuit.value[circuit.in0[g]];
+            batch.addToAll(share, pid);
             pid++;
         }
+        batch.close();
 
-        BigInteger[] res = new BigInteger[outCounter];
-        for (int k = 0; k < outCounter; k++) {
-            BigInteger[] shares = connections.receive(globalPid);
+        long[] res = new long[to - from];
+        for (int k = 0; k < to - from; k++) {
+            long[] shares = connections.receive(globalPid);
             globalPid++;
             // output of the circuit
             res[k] = secretShare.interpolation(t, shares);
@@ -192,26 +140,42 @@ public class CEPS implements MPCProtocol {
     }
 
     //Evaluating Multiplication gates.
-    public void EvaluateMultiplicationGates(int countMults, Gate[] mults) {
-        connections.setNrOfElementsToSend(countMults);
-        int pid = globalPid;
-        for (Gate g : mults) {
-            Gate[] inputs = g.getIn();
+    // The inner product of a DOT gate is a sum of products of degree 2t too, so it is reshared like a single product.
+    public void EvaluateMultiplicationGates(CompiledCircuit circuit, int lvl) {
+        int from = circuit.multStart[lvl];
+        int to = circuit.multStart[lvl+1];
+        int dotFrom = circuit.dotStart[lvl];
+        int dotTo = circuit.dotStart[lvl+1];
+        long[] value = circuit.value;
+        long[] h = new long[to - from + dotTo - dotFrom];
+        for (int k = from; k < to; k++) {
+            int g = circuit.mults[k];
             // hi = [ab;fafb]_2t
-            BigInteger hi = ((inputs[0].getValue()).multiply(inputs[1].getValue())).mod(F);
-            //Secret share hi
-            BigInteger[] shares = secretShare.secretSharing(t, hi);
-            connections.sendShares(shares, pid);
+            h[k - from] = field.multiply(value[circuit.in0[g]], value[circuit.in1[g]]);
+        }
+        for (int k = dotFrom; k < dotTo; k++) {
+            h[to - from + k - dotFrom] = circuit.dot(field, value, value, circuit.dots[k]);
+        }
+        //Secret share all the hi of the level at once
+        long[][] shares = secretShare.secretSharing(t, h);
+        RoundBatch batch = connections.openBatch();
+        int pid = globalPid;
+        for (long[] share : shares) {
+            batch.addShares(share, pid);
             pid++;
         }
-        for (Gate mult : mults) {
+        batch.close();
+        for (int k = from; k < to; k++) {
             //Get shares from other parties ([h(1)], [h(2)], ..., [h(n)])
-            BigInteger[] shares_h = connections.receive(globalPid);
+            long[] shares_h = connections.receive(globalPid);
+            globalPid++;
+            // Use Lagrange interpolation to find result. The h(i) lie on a polynomial of degree 2t.
+            value[circuit.mults[k]] = secretShare.interpolation(2*t, shares_h);
+        }
+        for (int k = dotFrom; k < dotTo; k++) {
+            long[] shares_h = connections.receive(globalPid);
             globalPid++;
-            // Use Lagrange interpolation to find result
-            BigInteger res = secretShare.interpolation(t, shares_h);
-            mult.setValue(res);
-            mult.setComputed();
+            value[circuit.dots[k]] = secretShare.interpolation(2*t, shares_h);
         }
     }
 
@@ -232,6 +196,11 @@ public class CEPS implements MPCProtocol {
     }
 
 
+    @Override
+    public List<PhaseStats> takePhases() {
+        return connections.takePhases();
+    }
+
     @Override
     public void stop() {
         connections.stop();
@@ -239,8 +208,9 @@ public class CEPS implements MPCProtocol {
 
     @Override
     // Run the protocol on the specified circuit!
-    public long[] runProtocol(Gate[] circuit) {
+    public long[] runProtocol(CompiledCircuit circuit) {
         System.out.println("Running CEPS");
+        circuit.prepare(field);
 
         // Variables for time testing
         long startTime;
@@ -251,6 +221,7 @@ public class CEPS implements MPCProtocol {
         calcNumberOfInputs(circuit);
         System.out.println("Input Sharing");
         startTime = System.nanoTime();
+        connections.phase("input");
         /////////////////////////////////////////////////////////////////
         inputSharing(circuit);
         /////////////////////////////////////////////////////////////////
@@ -263,10 +234,12 @@ public class CEPS implements MPCProtocol {
         System.out.println("Computation phase");
         int evalSharesBefore = connections.nrOfSharesSend;
         startTime = System.nanoTime();
+        connections.phase("eval");
         /////////////////////////////////////////////////////////////////
         computationPhase(circuit);
         /////////////////////////////////////////////////////////////////
         endTime = System.nanoTime();
+        connections.phase(null);
         int evalSharesAfter = connections.nrOfSharesSend;
 
         long duration_eval = (endTime - startTime)/1000000;
@@ -277,13 +250,14 @@ public class CEPS implements MPCProtocol {
         System.out.println(partyNr + " bytes send " + connections.bytesSend);
         System.out.println(partyNr + " shares send " + connections.nrOfSharesSend);
         System.out.println(partyNr + " messages send " + connections.messagesSend);
+        System.out.println(partyNr + " round latency " + connections.roundLatency);
 
         // Reset for next run
+        connections.roundLatency.reset();
         connections.bytesSend = 0;
         connections.time = 0;
         connections.messagesSend = 0;
         connections.nrOfSharesSend = 0;
-        connections.resetNrElementsToSend();
         globalPid = 0;
 
         long duration_protocol = duration_preprocess + duration_eval;
@@ -1,6 +1,8 @@
 import java.math.BigInteger;
 import java.security.SecureRandom;
-import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -10,14 +12,15 @@ import java.util.concurrent.locks.ReentrantLock;
 
 public class CGH18 implements MPCProtocol {
     private int partyNr;
-    private BigInteger F; // prime generating field F
-    private BigInteger[] x; // inputs of party
+    private Field field; // the field F the circuit is evaluated in
+    private long[] x; // inputs of party
     private int n; // number of parties in the protocol
     private int t; // Maximum number of corrupted parties
 
     public ConnectionHolder connections;
     private SecretSharing ss;
     private int numberOfMults = 0;
+    private int numberOfDots = 0;
     private int numberOfInputs = 0;
     private int numberOfOutputs = 0;
     private int numberOfMyInputsEvaluated = 0;
@@ -31,115 +34,65 @@ public class CGH18 implements MPCProtocol {
 
     CGH18(int partyNr, BigInteger F, BigInteger[] x, int n, String[] hostnames, int[] ports) {
         this.partyNr = partyNr;
-        this.F = F;
-        this.x = x;
+        field = Field.of(F);
+        this.x = new long[x.length];
+        for (int i = 0; i < x.length; i++) {
+            this.x[i] = field.fromBigInteger(x[i]);
+        }
         this.n = n;
         t = (int) Math.ceil( n/2.0-1);
-        connections = new ConnectionHolder(n, partyNr, ports, hostnames);
-        ss = new SecretSharing(n, F);
+        connections = new ConnectionHolder(n, partyNr, ports, hostnames, field);
+        ss = new SecretSharing(n, field);
 
         sc = new SecureRandom();
         sc.nextBoolean();
     }
-    private void calcNumberOfMultsAndOuts(Gate[] circuit) {
-        for (Gate g : circuit) {
-            if (g.getType().equals(Type.MULT)) numberOfMults++;
-            if (g.getType().equals(Type.OUTPUT)) numberOfOutputs++;
-        }
+    private void calcNumberOfMultsAndOuts(CompiledCircuit circuit) {
+        numberOfMults = circuit.getNumberOfMults();
+        numberOfDots = circuit.getNumberOfDots();
+        numberOfOutputs = circuit.getNumberOfOutputs();
     }
-    private void calcNumberOfInputs(Gate[] circuit) {
-        int i = 0;
-        int j = 0;
-        while (true) {
-            if(circuit[i].getLabel() == partyNr) j++;
-            if(circuit[i].getType().equals(Type.INPUT)) i++;
-            else break;
-        }
-        numberOfInputs = i;
-        numberOfMyInputs = j;
+    private void calcNumberOfInputs(CompiledCircuit circuit) {
+        numberOfInputs = circuit.numberOfInputs;
+        numberOfMyInputs = circuit.getNumberOfInputs(partyNr);
     }
 
     // For running multiple doubleRandoms in parallel.
-    private void doubleRandom1(int pid) {
-        int b = F.bitLength();
-        // Generate doubleRandom si
-        BigInteger si;
-        // Check if si was generated inside the field.
-        do {
-            si = new BigInteger(b, sc);
-        }
-        while (si.compareTo(F) > 0);
-        BigInteger[] tSharing = ss.secretSharing(t,si);
-        BigInteger[] two_tSharing = ss.secretSharing(2*t,si);
-
-
-        connections.sendShares(tSharing, pid);
-
-        pid++;
+    private void doubleRandom1(int batches, int pid) {
+        // Generate a doubleRandom si per batch and share them all at once
+        long[] si = ss.random(batches);
+        long[][] tSharings = ss.secretSharing(t, si);
+        long[][] two_tSharings = ss.secretSharing(2*t, si);
 
-        connections.sendShares(two_tSharing, pid);
+        RoundBatch batch = connections.openBatch();
+        for (int b = 0; b < batches; b++) {
+            batch.addShares(tSharings[b], pid + 2*b);
+            batch.addShares(two_tSharings[b], pid + 2*b + 1);
+        }
+        batch.close();
     }
 
-    private BigInteger[][] doubleRandom2(int l, int pid) {
-        BigInteger[] tShares = connections.receive(pid);
+    private long[][] doubleRandom2(int l, int pid) {
+        long[] tShares = connections.receive(pid);
         pid++;
-        BigInteger[] two_tShares = connections.receive(pid);
-        // Randomness extraction matrix
-        BigInteger[] M = new BigInteger[n];
-        for (int i = 0; i<n; i++) {
-            M[i] = new BigInteger(Integer.toString(n)).mod(F);
-        }
+        long[] two_tShares = connections.receive(pid);
 
-        // Randomness
-        BigInteger[][] res = new BigInteger[2][l];
-        BigInteger[] r = new BigInteger[l];
-        BigInteger[] R = new BigInteger[l];
-        for (int i = 0; i<l; i++) {
-            BigInteger[] alphas = new BigInteger[n];
-
-            // We create an array consisting of (α1^i, α2^i, ..., αn^i)
-            BigInteger i_bi = new BigInteger(Integer.toString(i));
-            for (int k = 0; k < n; k++) {
-                alphas[k] = M[k].modPow(i_bi, F);
-            }
-
-            r[i] = BigInteger.ZERO;
-            R[i] = BigInteger.ZERO;
-            for (int j = 0; j<n; j++) {
-                // α1^i*r1 + ... + αn^i*rn
-                r[i] = (r[i].add(tShares[j].multiply(alphas[j]))).mod(F);
-                R[i] = (R[i].add(two_tShares[j].multiply(alphas[j]))).mod(F);
-            }
-        }
-        res[0] = r;
-        res[1] = R;
-        return res;
+        // Randomness extraction of l <= n-t double sharings with the same hyper-invertible matrix.
+        return new long[][]{ss.extract(tShares, l), ss.extract(two_tShares, l)};
     }
 
-    private BigInteger[][] doubleRandom(int l, int pid) {
+    private long[][] doubleRandom(int l, int pid) {
+        // No batch is shared for l = 0, so none may be received.
+        if (l == 0)
+            return new long[][]{new long[0], new long[0]};
         int id = pid;
         int m = n - t;
         int k = l;
-        BigInteger[] random = new BigInteger[l];
-        BigInteger[] double_random = new BigInteger[l];
+        long[] random = new long[l];
+        long[] double_random = new long[l];
 
-        connections.setNrOfElementsToSend(2*((int) Math.ceil((double)l / m)));
-        do {
-            if (m < k) {
-                int finalId = id;
-                executor.submit(() -> {
-                    doubleRandom1(finalId);
-                });
-                id+=2;
-                k = k - m;
-            } else {
-                int finalId1 = id;
-                executor.submit(() -> {
-                    doubleRandom1(finalId1);
-                });
-                k = 0;
-            }
-        } while (k != 0);
+        // The batches of m are shared with the pids pid, pid+1, ..., two per batch.
+        doubleRandom1((l + m - 1) / m, pid);
 
         k=l;
         Future[] futures = new Future[l/m+1];
@@ -165,7 +118,7 @@ public class CGH18 implements MPCProtocol {
             if (f == null)
                 break;
             try {
-                BigInteger[][] r = (BigInteger[][]) f.get();
+                long[][] r = (long[][]) f.get();
                 for (int q = 0; q < r[0].length; q++) {
                     random[i] = r[0][q];
                     double_random[i] = r[1][q];
@@ -175,77 +128,38 @@ public class CGH18 implements MPCProtocol {
                 e.printStackTrace();
             }
         }
-        return new BigInteger[][]{random, double_random};
+        return new long[][]{random, double_random};
     }
 
     // For running multiple doubleRandoms in parallel.
-    private void random1(int pid) {
-        int b = F.bitLength();
-        // Generate doubleRandom si
-        BigInteger si;
-        // Check if si was generated inside the field.
-        do {
-            si = new BigInteger(b, sc);
-        }
-        while (si.compareTo(F) > 0);
-        BigInteger[] tSharing = ss.secretSharing(t,si);
+    private void random1(int batches, int pid) {
+        // Generate a random si per batch and share them all at once
+        long[][] tSharings = ss.secretSharing(t, ss.random(batches));
 
-        connections.sendShares(tSharing, pid);
-    }
-
-    private BigInteger[] random2(int l, int pid) {
-        BigInteger[] tShares = connections.receive(pid);
-
-        // Randomness extraction matrix
-        BigInteger[] M = new BigInteger[n];
-        for (int i = 0; i<n; i++) {
-            M[i] = new BigInteger(Integer.toString(n)).mod(F);
+        RoundBatch batch = connections.openBatch();
+        for (int b = 0; b < batches; b++) {
+            batch.addShares(tSharings[b], pid + b);
         }
+        batch.close();
+    }
 
-        // Randomness
-        BigInteger[] r = new BigInteger[l];
-        for (int i = 0; i<l; i++) {
-            BigInteger[] alphas = new BigInteger[n];
-
-            // We create an array consisting of (α1^i, α2^i, ..., αn^i)
-            BigInteger i_bi = new BigInteger(Integer.toString(i));
-            for (int k = 0; k < n; k++) {
-                alphas[k] = M[k].modPow(i_bi, F);
-            }
+    private long[] random2(int l, int pid) {
+        long[] tShares = connections.receive(pid);
 
-            r[i] = BigInteger.ZERO;
-            for (int j = 0; j<n; j++) {
-                // α1^i*r1 + ... + αn^i*rn
-                r[i] = (r[i].add(tShares[j].multiply(alphas[j]))).mod(F);
-            }
-        }
-        return r;
+        // Randomness extraction of l <= n-t sharings
+        return ss.extract(tShares, l);
     }
 
-    private BigInteger[] random(int l, int pid) {
+    private long[] random(int l, int pid) {
+        if (l == 0)
+            return new long[0];
         int id = pid;
         int m = n - t;
         int k = l;
 
-        connections.setNrOfElementsToSend((int) Math.ceil((double)l / (n-t)));
-
-        BigInteger[] random = new BigInteger[l];
-        do {
-            if (m < k) {
-                int finalId = id;
-                executor.submit(() -> {
-                    random1(finalId);
-                });
-                id++;
-                k = k - m;
-            } else {
-                int finalId1 = id;
-                executor.submit(() -> {
-                    random1(finalId1);
-                });
-                k = 0;
-            }
-        } while (k != 0);
+        long[] random = new long[l];
+        // The batches of m are shared with the pids pid, pid+1, ...
+        random1((l + m - 1) / m, pid);
 
         k=l;
         Future[] futures = new Future[l/m+1];
@@ -271,8 +185,8 @@ public class CGH18 implements MPCProtocol {
             if (f == null)
                 break;
             try {
-                BigInteger[] r = (BigInteger[]) f.get();
-                for (BigInteger ri : r) {
+                long[] r = (long[]) f.get();
+                for (long ri : r) {
                     random[i] = ri;
                     i++;
                 }
@@ -283,125 +197,69 @@ public class CGH18 implements MPCProtocol {
         return random;
     }
 
-    private Lock evalLock = new ReentrantLock();
-    private void evalInput1(Gate g, BigInteger r, int pid) {
-        int label = g.getLabel();
-        evalLock.lock();
+    private void evalInput1(RoundBatch batch, int label, int myInput, long r, int pid) {
         if (label == partyNr) {
             // delta_i = x + r
-            BigInteger delta = (x[numberOfMyInputsEvaluated].add(r)).mod(F);
+            long delta = field.add(x[myInput], r);
 
-            numberOfMyInputsEvaluated++;
-            connections.sendElementToAll(delta, pid);
+            batch.addToAll(delta, pid);
         }
-        evalLock.unlock();
-    }
-    private BigInteger evalInput2(Gate g, BigInteger inputRandomness, int pid) {
-        int label = g.getLabel();
-        BigInteger delta = connections.receiveFromPi(label, pid);
-        // share = delta_i - [r_i]
-        return delta;
     }
 
     // Secure Sharing of inputs
-    private void inputSharing(Gate[] circuit) {
-        BigInteger[] input_randomness = random_old(numberOfInputs, globalPid);
-        globalPid = (int) Math.ceil((double)numberOfMults / (n-t));
-        BigInteger[] r = new BigInteger[numberOfInputs];
+    private void inputSharing(CompiledCircuit circuit) {
+        long[] input_randomness = random(numberOfInputs, globalPid);
+        globalPid += (int) Math.ceil((double)numberOfInputs / (n-t));
+        long[] r = new long[numberOfInputs];
 
-        connections.setNrOfElementsToSend(numberOfInputs);
-        Future[] futures = new Future[numberOfInputs];
+        // The shares of the input randomness are sent to the parties providing the inputs in one batch.
+        RoundBatch batch = connections.openBatch();
         int pid = globalPid;
         for (int i=0; i<numberOfInputs; i++) {
-            int label = circuit[i].getLabel();
-            int finalI = i;
-            int finalPid1 = pid;
-            futures[i] = executor.submit(() -> {
-                connections.sendToPi(label, input_randomness[finalI], finalPid1);
-            });
+            batch.addToPi(circuit.constant[i], input_randomness[i], pid);
             pid++;
         }
+        batch.close();
 
-        // check if all tasks are done!
-        for (Future f : futures) {
-            try {
-                f.get();
-            } catch (InterruptedException | ExecutionException e) {
-                e.printStackTrace();
-            }
-        }
-
+        // The shares of the randomness of our inputs are interpolated as they arrive.
         pid = globalPid;
+        CompletableFuture<?>[] received = new CompletableFuture<?>[numberOfInputs];
         for (int i=0; i<numberOfInputs; i++) {
-            int label = circuit[i].getLabel();
+            int label = circuit.constant[i];
             int finalI = i;
-            int finalPid = pid;
-            futures[i] = executor.submit(() -> {
-                if(partyNr == label) {
-                    BigInteger[] r_shares = connections.receive(finalPid);
-                    r[finalI] = ss.interpolation(t, r_shares);
-                }
-            });
+            received[i] = partyNr != label ? CompletableFuture.completedFuture(null) :
+                    connections.receiveAsync(pid).thenAccept(r_shares -> r[finalI] = ss.interpolation(t, r_shares));
             pid++;
         }
-
-        for (Future f : futures) {
-            try {
-                f.get();
-            } catch (InterruptedException | ExecutionException e) {
-                e.printStackTrace();
-            }
-        }
+        CompletableFuture.allOf(received).join();
 
         globalPid = pid;
-        if (numberOfMyInputs > 0) {
-            connections.setNrOfElementsToSend(numberOfMyInputs);
-        }
-
-        pid = globalPid;
 
-        futures = new Future[numberOfInputs];
+        // The deltas of our inputs are sent in one batch.
+        batch = connections.openBatch();
         for (int i = 0; i<numberOfInputs; i++) {
-            int finalI = i;
-            int finalPid = pid;
-            futures[i] = executor.submit(() -> {
-                Gate g = circuit[finalI];
-                evalInput1(g, r[finalI], finalPid);
-
-            });
+            int label = circuit.constant[i];
+            int myInput = label == partyNr ? numberOfMyInputsEvaluated++ : -1;
+            evalInput1(batch, label, myInput, r[i], pid);
             pid++;
         }
-        for (int i = 0; i<numberOfInputs; i++) {
-            try {
-                futures[i].get();
-            } catch (InterruptedException | ExecutionException e) {
-                e.printStackTrace();
-            }
-        }
-        BigInteger[] deltas = new BigInteger[numberOfInputs];
+        batch.close();
+        ArrayList<CompletableFuture<Long>> deltaFutures = new ArrayList<>(numberOfInputs);
         pid = globalPid;
         for (int i = 0; i<numberOfInputs; i++) {
-            int finalI = i;
-            int finalPid = pid;
-            futures[i] = executor.submit(() -> {
-                Gate g = circuit[finalI];
-                deltas[finalI] = evalInput2(g, input_randomness[finalI], finalPid);
-            });
+            deltaFutures.add(connections.receiveFromPiAsync(circuit.constant[i], pid));
             pid++;
         }
+        long[] deltas = new long[numberOfInputs];
         for (int i = 0; i<numberOfInputs; i++) {
-            try {
-                futures[i].get();
-            } catch (InterruptedException | ExecutionException e) {
-                e.printStackTrace();
-            }
+            deltas[i] = deltaFutures.get(i).join();
         }
 
         // checking that the deltas send were the same for everyone
         long t1 = System.currentTimeMillis();
         StringBuilder verficationVector = new StringBuilder();
         for (int i = 0; i<numberOfInputs; i++) {
-            verficationVector.append(deltas[i]);
+            verficationVector.append(field.toBigInteger(deltas[i]));
         }
         String verf = verficationVector.toString();
         verficationVector.insert(0,"%");
@@ -413,129 +271,130 @@ public class CGH18 implements MPCProtocol {
         }
 
         for (int i = 0; i < numberOfInputs; i++) {
-            Gate g = circuit[i];
-            g.setValue(deltas[i].subtract(input_randomness[i]));
-            g.setComputed();
+            circuit.value[i] = field.subtract(deltas[i], input_randomness[i]);
         }
         long t2 = System.currentTimeMillis();
 
         globalPid = pid;
     }
 
-    private BigInteger Open(int degree, BigInteger share, int pid) {
+    private long Open(int degree, long share, int pid) {
         // int king = pid/2 % n;
         connections.sendToPi(0, share, pid);
         if (partyNr == 0) {
-            BigInteger[] x_shares = connections.receive(pid);
-            BigInteger x_king = ss.interpolation(degree, x_shares);
+            long[] x_shares = connections.receive(pid);
+            long x_king = ss.interpolation(degree, x_shares);
             connections.sendElementToAll(x_king, pid+1);
         }
-        BigInteger x = connections.receiveFromPi(0, pid+1);
+        long x = connections.receiveFromPi(0, pid+1);
         return x;
     }
 
-    // We do the open in three steps so it can be done using a fixed number of threads less than the number of elements
-    // to be opened for much improved performance.
-    private void Open1(BigInteger share, int pid, int i) {
+    // We do the open in three steps: the shares are sent to the kings in one batch, the kings interpolate as
+    // continuations on the received shares and add the results to another batch, and the results are received as
+    // futures, so no thread waits for the elements of a single open.
+    private void Open1(RoundBatch batch, long share, int pid, int i) {
         int king = i % n;
-        connections.sendToPi(king, share, pid);
+        batch.addToPi(king, share, pid);
     }
-    private void Open2(int degree, int pid, int i) {
+    private CompletableFuture<Void> Open2(RoundBatch batch, int degree, int pid, int i) {
         int king = i % n;
-        if (partyNr == king) {
-            BigInteger[] x_shares = connections.receive(pid);
-            BigInteger x_king = ss.interpolation(degree, x_shares);
-            connections.sendElementToAll(x_king, pid+1);
-        }
+        if (partyNr != king)
+            return null;
+        return connections.receiveAsync(pid).thenAcceptAsync(x_shares -> {
+            long x_king = ss.interpolation(degree, x_shares);
+            batch.addToAll(x_king, pid+1);
+        }, executor);
     }
-    private BigInteger Open3(int pid, int i) {
+    private CompletableFuture<Long> Open3(int pid, int i) {
         int king = i % n;
-        return connections.receiveFromPi(king, pid+1);
+        return connections.receiveFromPiAsync(king, pid+1);
     }
 
 
     // Used for opening a number of shares in parallel
-    private BigInteger[] openParallel(int degree, BigInteger[] elements, int pid) {
-        int thisPid = pid;
+    private long[] openParallel(int degree, long[] elements, int pid) {
+        return openParallel(degree, elements, elements.length, pid);
+    }
+
+    // The elements from index reduceFrom on are opened with degree 2t.
+    private long[] openParallel(int degree, long[] elements, int reduceFrom, int pid) {
+        // The results of the opens this party is king of are sent in one batch when they are all done.
+        RoundBatch results = connections.openBatch();
+        ArrayList<CompletableFuture<Void>> kings = new ArrayList<>();
         for (int i = 0; i < elements.length; i++) {
-            BigInteger element = elements[i];
-            int finalPid = thisPid;
-            int finalI = i;
-            executor.submit(() -> Open1(element, finalPid, finalI));
-            thisPid += 2;
+            CompletableFuture<Void> king = Open2(results, i < reduceFrom ? degree : 2*t, pid + 2*i, i);
+            if (king != null)
+                kings.add(king);
         }
-        thisPid = pid;
+
+        RoundBatch shares = connections.openBatch();
         for (int i = 0; i < elements.length; i++) {
-            int finalPid = thisPid;
-            int finalI = i;
-            executor.submit(() -> Open2(degree, finalPid, finalI));
-            thisPid += 2;
+            Open1(shares, elements[i], pid + 2*i, i);
         }
-        thisPid = pid;
-        Future[] futures = new Future[elements.length];
+        shares.close();
+        CompletableFuture.allOf(kings.toArray(new CompletableFuture<?>[0])).join();
+        results.close();
+        ArrayList<CompletableFuture<Long>> futures = new ArrayList<>(elements.length);
         for (int i = 0; i<elements.length; i++) {
-            int finalPid = thisPid;
-            int finalI = i;
-            futures[i] = executor.submit(() -> Open3(finalPid, finalI));
-            thisPid+=2;
+            futures.add(Open3(pid + 2*i, i));
         }
-        BigInteger[] res = new BigInteger[elements.length];
+        long[] res = new long[elements.length];
         for (int i = 0; i<elements.length; i++) {
-            try {
-                res[i] = (BigInteger) futures[i].get();
-            } catch (InterruptedException | ExecutionException e) {
-                e.printStackTrace();
-            }
+            res[i] = futures.get(i).join();
         }
 
         return res;
     }
 
     // adding value of wires
-    public void add(Gate g) {
+    public void add(CompiledCircuit circuit, int g) {
+        int in0 = circuit.in0[g];
+        int in1 = circuit.in1[g];
         // [x + y]
-        Gate[] inputs = g.getIn();
-        g.setValue(((inputs[0].getValue()).add(inputs[1].getValue())).mod(F));
+        circuit.value[g] = field.add(circuit.value[in0], circuit.value[in1]);
 
         // [r · (x + y)]
-        g.setVerf(((inputs[0].getVerf()).add(inputs[1].getVerf())).mod(F));
-
-        g.setComputed();
+        circuit.verf[g] = field.add(circuit.verf[in0], circuit.verf[in1]);
     }
     // Same as CEPS_old
-    private void multByConst(Gate g) {
-        BigInteger constLabel = new BigInteger(Integer.toString(g.getLabel()));
-
-        Gate input = (g.getIn()[0]);
-        g.setValue((input.getValue().multiply(constLabel)).mod(F));
+    private void multByConst(CompiledCircuit circuit, int g) {
+        long constLabel = field.fromLong(circuit.constant[g]);
 
-        g.setVerf((input.getVerf().multiply(constLabel)).mod(F));
+        int input = circuit.in0[g];
+        circuit.value[g] = field.multiply(circuit.value[input], constLabel);
 
-        g.setComputed();
+        circuit.verf[g] = field.multiply(circuit.verf[input], constLabel);
     }
+    // The constant terms of a LINEAR gate are multiplied by r for the verification circuit, so [r] stands for 1 there.
+    private void linear(CompiledCircuit circuit, int g, long randomSharing) {
+        circuit.value[g] = circuit.linear(field, circuit.value, g, field.fromLong(1));
+        circuit.verf[g] = circuit.linear(field, circuit.verf, g, randomSharing);
+    }
+
     // Count of how many mult gates we have gone through
     // mult--
 
     private int mult_count = 0;
-    public BigInteger mult(BigInteger v, BigInteger r, int pid, Triples[] triples) {
+    public long mult(long v, long r, int pid, Triples[] triples) {
         lock.lock();
         Triples trip = triples[mult_count];
         mult_count++;
         lock.unlock();
 
-        BigInteger a = trip.getA();
-        BigInteger b = trip.getB();
-        BigInteger c = trip.getC();
+        long a = trip.getA();
+        long b = trip.getB();
+        long c = trip.getC();
 
-        BigInteger alpha_share = v.add(a);
-        BigInteger beta_share = r.add(b);
+        long alpha_share = field.add(v, a);
+        long beta_share = field.add(r, b);
 
         class openab extends Thread {
-            private BigInteger share;
+            private long share;
             private int pid;
-            private BigInteger open_shares;
+            private long open_shares;
 
-            private openab(BigInteger share, int pid) {
+            private openab(long share, int pid) {
                 this.share = share;
                 this.pid = pid;
             }
@@ -561,42 +420,42 @@ public class CGH18 implements MPCProtocol {
             e.printStackTrace();
         }
 
-        BigInteger alpha = get_alpha.open_shares;
-        BigInteger beta = get_beta.open_shares;
+        long alpha = get_alpha.open_shares;
+        long beta = get_beta.open_shares;
         //  α β − α [b] − β [a] + [c].
-        return ((((alpha.multiply(beta)).subtract( alpha.multiply(b) )).subtract(beta.multiply(a))).add(c)).mod(F);
+        return field.add(field.subtract(field.subtract(field.multiply(alpha, beta), field.multiply(alpha, b)), field.multiply(beta, a)), c);
     }
 
 
     // Computing triples used for evaluating multiplication gates.
     private Triples[] triples(int l, int pid) {
+        if (l == 0)
+            return new Triples[0];
         int thisPid = pid;
         int randomSharesSend = (int) Math.ceil((double)l / (n-t));
         long t1 = System.currentTimeMillis();
-        BigInteger[] a = random_old(l, thisPid);
+        long[] a = random(l, thisPid);
         thisPid += randomSharesSend;
-        BigInteger[] b = random_old(l, thisPid);
+        long[] b = random(l, thisPid);
         thisPid += randomSharesSend;
-        BigInteger[][] rR = doubleRandom_old(l, thisPid);
+        long[][] rR = doubleRandom(l, thisPid);
         thisPid += 2*randomSharesSend;
-        BigInteger[] r = rR[0];
-        BigInteger[] R = rR[1];
+        long[] r = rR[0];
+        long[] R = rR[1];
         long t2 = System.currentTimeMillis();
 
         t1 = System.currentTimeMillis();
-        BigInteger[] d_shares = new BigInteger[l];
+        long[] d_shares = new long[l];
         for (int i = 0; i<l; i++) {
-            d_shares[i] = (a[i].multiply(b[i])).add(R[i]).mod(F);
+            d_shares[i] = field.add(field.multiply(a[i], b[i]), R[i]);
         }
-        connections.setNrElementsToSend_OPEN(l);
         t1 = System.currentTimeMillis();
-        BigInteger[] Ds = openParallel(2*t, d_shares, thisPid);
-        connections.resetNrElementsToSend();
+        long[] Ds = openParallel(2*t, d_shares, thisPid);
         t2 = System.currentTimeMillis();
 
-        BigInteger[] c = new BigInteger[l];
+        long[] c = new long[l];
         for (int i = 0; i<l; i++) {
-            c[i] = Ds[i].subtract(r[i]).mod(F);
+            c[i] = field.subtract(Ds[i], r[i]);
         }
 
 
@@ -614,8 +473,8 @@ public class CGH18 implements MPCProtocol {
         return trips;
     }
 
-    public void output(Gate g, int pid, int number) {
-        BigInteger out = Open(t,(g.getIn()[0]).getValue(), pid);
+    public void output(long share, int pid, int number) {
+        long out = Open(t, share, pid);
 /*
         lock.lock();
         System.out.println("Result " + number + " at " + partyNr + " :: " + out);
@@ -623,93 +482,108 @@ public class CGH18 implements MPCProtocol {
 */
     }
 
-    private void evaluateMults(int countMults, Gate[] mults, Triples[] multTriples) {
-        BigInteger[] alphasAndBetas = new BigInteger[4*countMults];
-        BigInteger[] as = new BigInteger[2*countMults];
-        BigInteger[] bs = new BigInteger[2*countMults];
-        BigInteger[] cs = new BigInteger[2*countMults];
+    // The double sharings of the DOT gates.
+    private long[][] dotRandoms;
+    private int dot_count = 0;
+
+    // Evaluates the multiplication gates mults[from..from+countMults) and the DOT gates dots[dotFrom..dotFrom+countDots)
+    // of the circuit.
+    private void evaluateMults(CompiledCircuit circuit, int from, int countMults, int dotFrom, int countDots, Triples[] multTriples) {
+        long[] alphasAndBetas = new long[4*countMults + 2*countDots];
+        long[] as = new long[2*countMults];
+        long[] bs = new long[2*countMults];
+        long[] cs = new long[2*countMults];
 
         for (int k = 0; k < countMults; k++) {
-            Gate g = mults[k];
-            Gate[] ins = g.getIn();
+            int g = circuit.mults[from + k];
 
-            BigInteger x1 = ins[0].getValue();
-            BigInteger x2 = ins[1].getValue();
+            long x1 = circuit.value[circuit.in0[g]];
+            long x2 = circuit.value[circuit.in1[g]];
 
             Triples trip = multTriples[mult_count];
             Triples trip_verf = multTriples[mult_count + numberOfMults];
             mult_count++;
 
             // Evaluating the circuit
-            BigInteger a = trip.getA();
+            long a = trip.getA();
             as[k] = a;
-            BigInteger b = trip.getB();
+            long b = trip.getB();
             bs[k] = b;
             cs[k] = trip.getC();
-            alphasAndBetas[k] = x1.add(a);
-            alphasAndBetas[k + countMults] = x2.add(b);
+            alphasAndBetas[k] = field.add(x1, a);
+            alphasAndBetas[k + countMults] = field.add(x2, b);
 
             // Evaluating the verification
-            BigInteger verf1 = g.getIn()[0].getVerf();
-            BigInteger a_verf = trip_verf.getA();
+            long verf1 = circuit.verf[circuit.in0[g]];
+            long a_verf = trip_verf.getA();
             as[k+countMults] = a_verf;
-            BigInteger b_verf = trip_verf.getB();
+            long b_verf = trip_verf.getB();
             bs[k+countMults] = b_verf;
             cs[k+countMults] = trip_verf.getC();
-            alphasAndBetas[k + 2*countMults] = verf1.add(a_verf);
-            alphasAndBetas[k + 3*countMults] = x2.add(b_verf);
+            alphasAndBetas[k + 2*countMults] = field.add(verf1, a_verf);
+            alphasAndBetas[k + 3*countMults] = field.add(x2, b_verf);
+        }
+        // The inner products of a DOT gate, [x*y] and [(r*x)*y], are masked with the 2t-sharings of double sharings and
+        // opened with degree 2t, so a DOT gate takes two opens whatever its length.
+        for (int k = 0; k < countDots; k++) {
+            int g = circuit.dots[dotFrom + k];
+            long h = circuit.dot(field, circuit.value, circuit.value, g);
+            long hVerf = circuit.dot(field, circuit.verf, circuit.value, g);
+            alphasAndBetas[4*countMults + k] = field.add(h, dotRandoms[1][dot_count + k]);
+            alphasAndBetas[4*countMults + countDots + k] = field.add(hVerf, dotRandoms[1][numberOfDots + dot_count + k]);
+        }
+        long[] opens = openParallel(t, alphasAndBetas, 4*countMults, globalPid);
+        globalPid += 2*alphasAndBetas.length;
+
+        for (int k = 0; k < countDots; k++) {
+            int g = circuit.dots[dotFrom + k];
+            circuit.value[g] = field.subtract(opens[4*countMults + k], dotRandoms[0][dot_count + k]);
+            circuit.verf[g] = field.subtract(opens[4*countMults + countDots + k], dotRandoms[0][numberOfDots + dot_count + k]);
         }
-        connections.setNrElementsToSend_OPEN(alphasAndBetas.length);
-        BigInteger[] opens = openParallel(t, alphasAndBetas, globalPid);
-        globalPid = 0;
+        dot_count += countDots;
 
         for (int k = 0; k < countMults; k++) {
             // Computing the value of the gates in the circuit.
-            Gate g = mults[k];
-            BigInteger alpha = opens[k];
-            BigInteger beta = opens[k + countMults];
-            g.setValue(((((alpha.multiply(beta)).subtract( alpha.multiply(bs[k]) )).subtract(beta.multiply(as[k]))).add(cs[k])).mod(F));
+            int g = circuit.mults[from + k];
+            long alpha = opens[k];
+            long beta = opens[k + countMults];
+            circuit.value[g] = (field.add(field.subtract(field.subtract(field.multiply(alpha, beta), field.multiply(alpha, bs[k])), field.multiply(beta, as[k])), cs[k]));
 
             // Computing the value of the gates in the verification circuit.
-            BigInteger alpha_verf = opens[k + 2*countMults];
-            BigInteger beta_verf = opens[k + 3*countMults];
-            g.setVerf(((((alpha_verf.multiply(beta_verf)).subtract( alpha_verf.multiply(bs[k + countMults]) )).subtract(beta_verf.multiply(as[k + countMults]))).add(cs[k + countMults])).mod(F));
-
-            g.setComputed();
+            long alpha_verf = opens[k + 2*countMults];
+            long beta_verf = opens[k + 3*countMults];
+            circuit.verf[g] = field.add(field.subtract(field.subtract(field.multiply(alpha_verf, beta_verf), field.multiply(alpha_verf, bs[k + countMults])), field.multiply(beta_verf, as[k + countMults])), cs[k + countMults]);
         }
     }
 
-    private BigInteger[] evaluateInputMults(int countMults, Gate[] inputs, Triples[] triples, BigInteger r) {
-        BigInteger[] alphasAndBetas = new BigInteger[2*countMults];
-        BigInteger[] as = new BigInteger[countMults];
-        BigInteger[] bs = new BigInteger[countMults];
-        BigInteger[] cs = new BigInteger[countMults];
+    private long[] evaluateInputMults(int countMults, long[] inputs, Triples[] triples, long r) {
+        long[] alphasAndBetas = new long[2*countMults];
+        long[] as = new long[countMults];
+        long[] bs = new long[countMults];
+        long[] cs = new long[countMults];
 
         for (int k = 0; k < countMults; k++) {
-            Gate g = inputs[k];
-            BigInteger input = g.getValue();
+            long input = inputs[k];
             Triples trip = triples[mult_count];
             mult_count++;
 
-            BigInteger a = trip.getA();
+            long a = trip.getA();
             as[k] = a;
-            BigInteger b = trip.getB();
+            long b = trip.getB();
             bs[k] = b;
             cs[k] = trip.getC();
-            alphasAndBetas[k] = input.add(a);
-            alphasAndBetas[k + countMults] = r.add(b);
+            alphasAndBetas[k] = field.add(input, a);
+            alphasAndBetas[k + countMults] = field.add(r, b);
         }
-        connections.setNrElementsToSend_OPEN(alphasAndBetas.length);
-        BigInteger[] opens = openParallel(t, alphasAndBetas, globalPid);
-        connections.resetNrElementsToSend();
+        long[] opens = openParallel(t, alphasAndBetas, globalPid);
         globalPid += 2*alphasAndBetas.length;
 
-        BigInteger[] res = new BigInteger[countMults];
+        long[] res = new long[countMults];
         for (int k = 0; k < countMults; k++) {
             // Computing the value of the gates in the circuit.
-            BigInteger alpha = opens[k];
-            BigInteger beta = opens[k + countMults];
-            res[k] = ((((alpha.multiply(beta)).subtract( alpha.multiply(bs[k]) )).subtract(beta.multiply(as[k]))).add(cs[k])).mod(F);
+            long alpha = opens[k];
+            long beta = opens[k + countMults];
+            res[k] = field.add(field.subtract(field.subtract(field.multiply(alpha, beta), field.multiply(alpha, bs[k])), field.multiply(beta, as[k])), cs[k]);
         }
 
         return res;
@@ -719,8 +593,9 @@ public class CGH18 implements MPCProtocol {
 
 
     @Override
-    public long[] runProtocol(Gate[] circuit) {
+    public long[] runProtocol(CompiledCircuit circuit) {
         System.out.println("Running CGH18!");
+        circuit.prepare(field);
 
         calcNumberOfInputs(circuit);
         calcNumberOfMultsAndOuts(circuit);
@@ -729,148 +604,120 @@ public class CGH18 implements MPCProtocol {
         long tstart = System.currentTimeMillis();
 
         long t1 = System.currentTimeMillis();
+        connections.phase("input");
         inputSharing(circuit);
         long t2 = System.currentTimeMillis();
         System.out.println("input done! " + (t2-t1));
         // Generating radomizing share
-        connections.resetNrElementsToSend();
         t1 = System.currentTimeMillis();
-        BigInteger randomSharing = random_old(1, globalPid)[0];
+        connections.phase("preprocess");
+        long randomSharing = random_old(1, globalPid)[0];
         globalPid++;
         Triples[] inputTriples;
         mult_count = 0;
         globalPid+=4;
 
-        // The input triples are generated here.
-        int nrIns;
-        Gate[] inputs;
-        if (circuit[0].getIn() == null) {
-            inputTriples = triples(numberOfInputs, globalPid);
-            globalPid += 2*numberOfInputs + 4*(int) Math.ceil((double)numberOfInputs / (n-t));
-            nrIns = numberOfInputs;
-            inputs = Arrays.copyOfRange(circuit, 0, numberOfInputs);
-        } else {
-            inputTriples = triples(numberOfInputs+1, globalPid);
-            globalPid += 2*(numberOfInputs+1) + 4*(int) Math.ceil((double)(numberOfInputs+1) / (n-t));
-            inputs = Arrays.copyOfRange(circuit, 0, numberOfInputs+1);
-            inputs[inputs.length - 1] = circuit[0].getIn()[0];
-            nrIns = numberOfInputs+1;
-        }
+        // The input triples are generated here, the constant 1 wire is verified along with the inputs.
+        int nrIns = circuit.one == -1 ? numberOfInputs : numberOfInputs+1;
+        inputTriples = triples(nrIns, globalPid);
+        globalPid += 2*nrIns + 4*(int) Math.ceil((double)nrIns / (n-t));
+        long[] inputs = new long[nrIns];
+        System.arraycopy(circuit.value, 0, inputs, 0, numberOfInputs);
+        if (circuit.one != -1)
+            inputs[numberOfInputs] = circuit.value[circuit.one];
 
-        BigInteger[] inputVerfs = evaluateInputMults(nrIns, inputs , inputTriples, randomSharing);
+        long[] inputVerfs = evaluateInputMults(nrIns, inputs , inputTriples, randomSharing);
 
-        for (int i = 0; i < numberOfInputs; i++) {
-            circuit[i].setVerf(inputVerfs[i]);
-        }
-        if (circuit[0].getIn() != null)
-            circuit[0].getIn()[0].setVerf(inputVerfs[numberOfInputs]);
+        System.arraycopy(inputVerfs, 0, circuit.verf, 0, numberOfInputs);
+        if (circuit.one != -1)
+            circuit.verf[circuit.one] = inputVerfs[numberOfInputs];
         t2 = System.currentTimeMillis();
 
         // Triples for computing the mults
         t1 = System.currentTimeMillis();
         Triples[] multTriples = triples(2 * numberOfMults, globalPid);
-        globalPid += 2*numberOfMults + 4*(int) Math.ceil((double)numberOfMults / (n-t));
+        globalPid += 2*(2*numberOfMults) + 4*(int) Math.ceil((double)(2*numberOfMults) / (n-t));
         mult_count = 0;
 
+        // Double sharings for the DOT gates, the first numberOfDots for the circuit and the rest for the verification.
+        if (numberOfDots > 0) {
+            dotRandoms = doubleRandom(2 * numberOfDots, globalPid);
+            globalPid += 2*(int) Math.ceil((double)(2*numberOfDots) / (n-t));
+        }
+        dot_count = 0;
+
         // Computation of circuit
-        int currentLvl = 1;
-        int[] idxOfMults = new int[numberOfMults];
-        circuitLabel:
-        for (int i = numberOfInputs; i<circuit.length;) {
-            int countMultsThisLvl = 0;
-            int j = i;
-            // waiting for all gates in the current lvl to get ready
-            while(circuit[i].getLevel() == currentLvl) {
-                while (gateNotReady(circuit[i])) {
-                    try {
-                        synchronized (this) {
-                            wait();
-                        }
-                    } catch (InterruptedException e) {
-                        e.printStackTrace();
-                    }
-                }
-                if (circuit[i].getType() == Type.MULT)
-                    countMultsThisLvl++;
-                i++;
-                if (i == circuit.length)
-                    break;
-            }
-            if (countMultsThisLvl != 0)
-                connections.setNrElementsToSend_OPEN(2*countMultsThisLvl);
-
-            // Start to compute all the gates which are ready.
-            Gate[] mults = new Gate[countMultsThisLvl];
-            // Gate[] verfMults = new Gate[countMultsThisLvl];
-            int multIterCounter = 0;
-            for (int k=j; k<i; k++) {
-                Gate g = circuit[k];
-                Type type = g.getType();
-                switch(type) {
-                    case ADD:
-                        add(g);
+        connections.phase("eval");
+        for (int lvl = 1; lvl < circuit.numberOfLevels; lvl++) {
+            // The outputs are opened after the verification.
+            if (circuit.outputStart[lvl+1] != circuit.outputStart[lvl])
+                break;
+            int countMultsThisLvl = circuit.multStart[lvl+1] - circuit.multStart[lvl];
+            int countDotsThisLvl = circuit.dotStart[lvl+1] - circuit.dotStart[lvl];
+
+            // Compute the linear gates of the level.
+            for (int k = circuit.levelStart[lvl]; k < circuit.levelStart[lvl+1]; k++) {
+                switch (circuit.opcode[k]) {
+                    case CompiledCircuit.ADD:
+                        add(circuit, k);
                         break;
 
-                    case CONST:
-                        multByConst(g);
+                    case CompiledCircuit.CONST:
+                        multByConst(circuit, k);
                         break;
 
-                    case MULT:
-                        mults[multIterCounter] = g;
-                        // verfMults[multIterCounter] = verf;
-                        idxOfMults[multIterCounter] = k;
-                        multIterCounter++;
+                    case CompiledCircuit.LINEAR:
+                        linear(circuit, k, randomSharing);
                         break;
 
-                    case OUTPUT:
-                        break circuitLabel;
-
-                    case INPUT:
+                    case CompiledCircuit.INPUT:
                         System.out.println("EROOR");
                         break;
                 }
             }
-            currentLvl++;
 
             // Evaluating multiplication gates
-            if (countMultsThisLvl != 0)
-                evaluateMults(countMultsThisLvl, mults, multTriples);
+            if (countMultsThisLvl != 0 || countDotsThisLvl != 0)
+                evaluateMults(circuit, circuit.multStart[lvl], countMultsThisLvl, circuit.dotStart[lvl], countDotsThisLvl, multTriples);
         }
         t2 = System.currentTimeMillis();
         System.out.println("EVAL done! " + (t2-t1));
 
         // -Verification step
-        connections.resetNrElementsToSend();
         t1 = System.currentTimeMillis();
-        BigInteger[] coins = coin(numberOfMults + numberOfInputs);
-        BigInteger u = BigInteger.ZERO;
-        BigInteger w = BigInteger.ZERO;
+        connections.phase("verification");
+        long[] coins = coin(numberOfMults + numberOfDots + numberOfInputs);
+        long u = 0;
+        long w = 0;
 
         for (int i = 0; i < numberOfMults; i++) {
-            u = u.add(coins[i].multiply(circuit[idxOfMults[i]].getVerf()));
-            w = w.add(coins[i].multiply(circuit[idxOfMults[i]].getValue()));
+            int g = circuit.mults[i];
+            u = field.add(u, field.multiply(coins[i], circuit.verf[g]));
+            w = field.add(w, field.multiply(coins[i], circuit.value[g]));
+        }
+        for (int i = 0; i < numberOfDots; i++) {
+            int g = circuit.dots[i];
+            u = field.add(u, field.multiply(coins[numberOfMults + i], circuit.verf[g]));
+            w = field.add(w, field.multiply(coins[numberOfMults + i], circuit.value[g]));
         }
         int inNr = 0;
-        for (int i = numberOfMults; i < numberOfMults+numberOfInputs; i++) {
-            u = u.add(coins[i].multiply(circuit[inNr].getVerf()));
-            w = w.add(coins[i].multiply(circuit[inNr].getValue()));
+        for (int i = numberOfMults + numberOfDots; i < numberOfMults+numberOfDots+numberOfInputs; i++) {
+            u = field.add(u, field.multiply(coins[i], circuit.verf[inNr]));
+            w = field.add(w, field.multiply(coins[i], circuit.value[inNr]));
             inNr++;
         }
-        u = u.mod(F);
-        w = w.mod(F);
 
         // System.out.println("for loops " + (t2-t1));
-        connections.resetNrElementsToSend();
-        BigInteger r = Open(t, randomSharing, globalPid);
+        long r = Open(t, randomSharing, globalPid);
         globalPid+=2;
         // System.out.println("open verf " + (t1-t2));
         // [T] = [u] − r · [w].
-        BigInteger Tshare = u.subtract(r.multiply(w)).mod(F);
-        connections.resetNrElementsToSend();
+        long Tshare = field.subtract(u, field.multiply(r, w));
         boolean check = checkZero(Tshare);
         if (!check) {
             System.out.println("BOTTOM");
             connections.sendMessageToAll("BOTTOM");
+            connections.phase(null);
             return null;
         }
         t2 = System.currentTimeMillis();
@@ -878,32 +725,34 @@ public class CGH18 implements MPCProtocol {
         System.out.println("Verification done! " + (t2-t1));
 
         // Computing the outputs
-        connections.setNrElementsToSend_OPEN(numberOfOutputs);
-        int k = 0;
-        BigInteger[] outputShares = new BigInteger[numberOfOutputs];
-        for (int i = circuit.length - numberOfOutputs; i < circuit.length; i++) {
-            outputShares[k] = (circuit[i].getIn()[0]).getValue();
-            k++;
+        long[] outputShares = new long[numberOfOutputs];
+        for (int k = 0; k < numberOfOutputs; k++) {
+            outputShares[k] = circuit.value[circuit.in0[circuit.outputs[k]]];
         }
 
-        BigInteger[] res = openParallel(t, outputShares, globalPid);
+        connections.phase("output");
+        long[] res = openParallel(t, outputShares, globalPid);
+        connections.phase(null);
 
         t1 = System.currentTimeMillis();
 
         long tend = System.currentTimeMillis();
 
         // Resetting fields if the protocol is to be runProtocol again!
-        connections.resetNrElementsToSend();
         executor.shutdown();
         executor.isTerminated();
         executor = Executors.newFixedThreadPool(8);
         numberOfMyInputsEvaluated = 0;
         mult_count = 0;
+        dot_count = 0;
+        dotRandoms = null;
         globalPid = 0;
         long durationProtocol = tend-tstart;
         int sharesSend = connections.nrOfSharesSend;
         System.out.println(partyNr + " shares send " + sharesSend);
         System.out.println(partyNr + " messages send " + connections.messagesSend);
+        System.out.println(partyNr + " round latency " + connections.roundLatency);
+        connections.roundLatency.reset();
         int messagesSend = connections.messagesSend;
         // System.out.println(partyNr + " Duration protocol " + durationProtocol);
         connections.nrOfSharesSend = 0;
@@ -918,142 +767,43 @@ public class CGH18 implements MPCProtocol {
             3. The parties runProtocol open([T]). If a party receives ⊥, then it outputs ⊥. Else, it continues.
             4. Each party checks that T = 0. If yes, it outputs accept; else, it outputs reject*/
 
-    private BigInteger[][] doubleRandom_old(int l, int pid) {
-        int b = F.bitLength();
+    // A single round of random(), for l <= n-t sharings.
+    private long[] random_old(int l, int pid) {
         // Generate doubleRandom si
-        BigInteger si;
-        // Check if si was generated inside the field.
-        do {
-            si = new BigInteger(b, sc);
-        }
-        while (si.compareTo(F) > 0);
-        BigInteger[] tSharing = ss.secretSharing(t, si);
-        BigInteger[] two_tSharing = ss.secretSharing(2*t, si);
+        long si = field.random(sc);
 
+        long[] tSharing = ss.secretSharing(t,si);
 
         connections.sendShares(tSharing, pid);
-        BigInteger[] tShares = connections.receive(pid);
-        pid++;
-
-        connections.sendShares(two_tSharing, pid);
-        BigInteger[] two_tShares = connections.receive(pid);
-
-        // Randomness extraction matrix
-        BigInteger[] M = new BigInteger[n];
-        for (int i = 0; i<n; i++) {
-            M[i] = new BigInteger(Integer.toString(n)).mod(F);
-        }
-
-        // Randomness
-        BigInteger[][] res = new BigInteger[2][l];
-        BigInteger[] r = new BigInteger[l];
-        BigInteger[] R = new BigInteger[l];
-        for (int i = 0; i<l; i++) {
-            BigInteger[] alphas = new BigInteger[n];
-
-            // We create an array consisting of (α1^i, α2^i, ..., αn^i)
-            BigInteger i_bi = new BigInteger(Integer.toString(i));
-            for (int k = 0; k < n; k++) {
-                alphas[k] = M[k].modPow(i_bi, F);
-            }
+        long[] tShares = connections.receive(pid);
 
-            r[i] = BigInteger.ZERO;
-            R[i] = BigInteger.ZERO;
-            for (int j = 0; j<n; j++) {
-                // α1^i*r1 + ... + αn^i*rn
-                r[i] = (r[i].add(tShares[j].multiply(alphas[j]))).mod(F);
-                R[i] = (R[i].add(two_tShares[j].multiply(alphas[j]))).mod(F);
-            }
-        }
-        res[0] = r;
-        res[1] = R;
-        return res;
+        // Randomness extraction
+        return ss.extract(tShares, l);
     }
 
-    private BigInteger[] random_old(int l, int pid) {
-        int b = F.bitLength();
-        // Generate doubleRandom si
-        BigInteger si;
-        // Check if si was generated inside the field.
-        do {
-            si = new BigInteger(b, sc);
-        } while (si.compareTo(F) > 0);
-
-        BigInteger[] tSharing = ss.secretSharing(t,si);
-
-        connections.sendShares(tSharing, pid);
-        BigInteger[] tShares = connections.receive(pid);
-
-        // Randomness extraction matrix
-        BigInteger[] M = new BigInteger[n];
-        for (int i = 0; i<n; i++) {
-            M[i] = new BigInteger(Integer.toString(n)).mod(F);
-        }
-
-        // Randomness
-        BigInteger[] r = new BigInteger[l];
-        for (int i = 0; i<l; i++) {
-            BigInteger[] alphas = new BigInteger[n];
-
-            // We create an array consisting of (α1^i, α2^i, ..., αn^i)
-            BigInteger i_bi = new BigInteger(Integer.toString(i));
-            for (int k = 0; k < n; k++) {
-                alphas[k] = M[k].modPow(i_bi, F);
-            }
-
-            r[i] = BigInteger.ZERO;
-            for (int j = 0; j<n; j++) {
-                // α1^i*r1 + ... + αn^i*rn
-                r[i] = (r[i].add(tShares[j].multiply(alphas[j]))).mod(F);
-            }
-        }
-        return r;
-    }
-
-    private boolean checkZero(BigInteger tshare) {
-        BigInteger r = random_old(1, globalPid)[0];
+    private boolean checkZero(long tshare) {
+        long r = random_old(1, globalPid)[0];
         globalPid++;
         Triples[] triples = triples(1, globalPid);
-        globalPid+=4;
+        globalPid += 2 + 4*(int) Math.ceil(1.0 / (n-t));
         mult_count = 0;
-        BigInteger multshares = mult(r, tshare, globalPid, triples);
+        long multshares = mult(r, tshare, globalPid, triples);
         globalPid+=4;
-        BigInteger res = Open(t, multshares, globalPid);
+        long res = Open(t, multshares, globalPid);
         globalPid+=2;
 
-        return res.equals(BigInteger.ZERO);
+        return res == 0;
     }
 
-    private boolean gateNotReady(Gate g) {
-        Type t = g.getType();
-        Gate[] ins = g.getIn();
-        if(t.equals(Type.INPUT)) {
-            return false;
-        }
-        // ADD and mult are the only gates with two inputs.
-        else if (t.equals(Type.ADD) ||  t.equals(Type.MULT)) {
-            // Return true if both the inptus are set -- otherwise return false
-            return (!ins[0].getComputed() || !ins[1].getComputed());
-        }
-        // Lastly we consider Output, Const
-        else if (t.equals(Type.CONST) || t.equals(Type.OUTPUT)) {
-            return !ins[0].getComputed();
-        }
-        else {
-            System.out.println("Something is wrong in gate ready!");
-            return true;
-        }
-    }
     /*
         F coin is an ideal functionality that chooses a random element from F and hands
         it to all parties. A simple way to compute F coin is to use F rand to generate a
         random sharing and then open it.
     */
-    private BigInteger[] coin(int l) {
-        BigInteger[] rand = random_old(l, globalPid);
+    private long[] coin(int l) {
+        long[] rand = random(l, globalPid);
         globalPid += (int) Math.ceil((double)l / (n-t));
 
-        connections.setNrElementsToSend_OPEN(l);
         return openParallel(t, rand, globalPid);
     }
 
@@ -1071,6 +821,11 @@ public class CGH18 implements MPCProtocol {
         long duration_setup = (endTime - startTime)/1000000;
     }
 
+    @Override
+    public List<PhaseStats> takePhases() {
+        return connections.takePhases();
+    }
+
     @Override
     public void stop() {
         connections.stop();
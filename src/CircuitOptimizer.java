@@ -0,0 +1,316 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+
+/*
+Simplifies a circuit made by ImportCircuit before it is layered. Every removed multiplication gate saves a triple and
+an opening, and every removed linear gate saves a pass over its inputs.
+    - The linear gates (ADD, CONST and LINEAR) are written as a sum c_0 + c_1*a_1 + ... + c_k*a_k of atoms with integer
+      coefficients, where the atoms are the input gates and the multiplication and DOT gates. Two linear gates with the same
+      sum are the same gate, a sum 1*a is the atom a itself, and every other sum becomes a single LINEAR gate, so chains
+      of linear gates are folded and linear sub-expressions such as INV(INV(x)) are merged.
+    - The LINEAR gate reads the atoms of its sum, or the gates read by the original gate if that is fewer terms. The
+      terms of linear gates which only the original gate reads are counted for the latter, as those are dropped
+      otherwise.
+    - Multiplication gates with the same inputs are the same gate, and a multiplication by a public constant is a
+      linear gate.
+    - Gates which do not reach an output gate are dropped. The input gates are kept, as the parties provide a value for
+      every one of them.
+The sums are identities over the integers, so they hold in every field. Given the characteristic p of the field, the
+coefficients are reduced modulo p instead, which in characteristic 2 drops the term -2*a*b of every XOR gate and with
+it the multiplication gate. A linear gate with a sum of more than
+MAX_TERMS atoms, or a coefficient not fitting in an int, is treated as an atom itself, so the sums stay small along
+long chains of XOR gates.
+ */
+class CircuitOptimizer {
+    private static final int MAX_TERMS = 16;
+
+    // A sum of atoms, kept sorted by the number of the atom so equal sums are equal arrays.
+    private final class Form {
+        final int[] atoms;
+        final long[] coeffs;
+        final long offset;
+
+        Form(int[] atoms, long[] coeffs, long offset) {
+            this.atoms = atoms;
+            this.coeffs = coeffs;
+            this.offset = offset;
+        }
+
+        Form scale(long c) {
+            long[] res = new long[coeffs.length];
+            for (int i = 0; i < res.length; i++) {
+                res[i] = coeffs[i] * c;
+            }
+            return new Form(atoms, res, offset * c).trim();
+        }
+
+        Form plus(Form o) {
+            int[] a = new int[atoms.length + o.atoms.length];
+            long[] c = new long[a.length];
+            int i = 0, j = 0, k = 0;
+            while (i < atoms.length || j < o.atoms.length) {
+                if (j == o.atoms.length || (i < atoms.length && atoms[i] < o.atoms[j])) {
+                    a[k] = atoms[i];
+                    c[k++] = coeffs[i++];
+                } else if (i == atoms.length || o.atoms[j] < atoms[i]) {
+                    a[k] = o.atoms[j];
+                    c[k++] = o.coeffs[j++];
+                } else {
+                    a[k] = atoms[i];
+                    c[k++] = coeffs[i++] + o.coeffs[j++];
+                }
+            }
+            return new Form(Arrays.copyOf(a, k), Arrays.copyOf(c, k), offset + o.offset).trim();
+        }
+
+        // Reduces the numbers modulo the characteristic and drops the atoms with coefficient 0.
+        private Form trim() {
+            int k = 0;
+            for (int i = 0; i < coeffs.length; i++) {
+                coeffs[i] = reduce(coeffs[i]);
+                if (coeffs[i] != 0) k++;
+            }
+            long o = reduce(offset);
+            if (k == coeffs.length) return o == offset ? this : new Form(atoms, coeffs, o);
+            int[] a = new int[k];
+            long[] c = new long[k];
+            k = 0;
+            for (int i = 0; i < coeffs.length; i++) {
+                if (coeffs[i] != 0) {
+                    a[k] = atoms[i];
+                    c[k++] = coeffs[i];
+                }
+            }
+            return new Form(a, c, o);
+        }
+
+        // Whether the sum is short and its numbers fit in an int, so products and sums of them can not overflow.
+        boolean small() {
+            if (atoms.length > MAX_TERMS || (int) offset != offset) return false;
+            for (long c : coeffs) {
+                if ((int) c != c) return false;
+            }
+            return true;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Form && offset == ((Form) o).offset && Arrays.equals(atoms, ((Form) o).atoms)
+                    && Arrays.equals(coeffs, ((Form) o).coeffs);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * Arrays.hashCode(atoms) + Arrays.hashCode(coeffs)) + Long.hashCode(offset);
+        }
+    }
+
+    // The characteristic of the field, 0 for the integers.
+    private final long characteristic;
+    private final ArrayList<Gate> res = new ArrayList<>();
+    // The atoms by their number.
+    private final ArrayList<Gate> atoms = new ArrayList<>();
+    // The gate of the optimized circuit computing each gate of the original circuit.
+    private final IdentityHashMap<Gate, Gate> rep = new IdentityHashMap<>();
+    // The number of gates of the original circuit reading each gate.
+    private final IdentityHashMap<Gate, Integer> readers = new IdentityHashMap<>();
+    // The number and the sum of every gate of the optimized circuit. The sum of an atom is the atom itself.
+    private final IdentityHashMap<Gate, Integer> id = new IdentityHashMap<>();
+    private final IdentityHashMap<Gate, Form> form = new IdentityHashMap<>();
+    private final HashMap<Form, Gate> linear = new HashMap<>();
+    private final HashMap<Long, Gate> products = new HashMap<>();
+
+    private CircuitOptimizer(long characteristic) {
+        this.characteristic = characteristic;
+    }
+
+    // Returns the optimized circuit, in an order where the inputs of a gate come before it. The levels are not set.
+    // The circuit is evaluated in a field of the given characteristic, or any field for 0.
+    static Gate[] optimize(Gate[] circuit, long characteristic) {
+        CircuitOptimizer opt = new CircuitOptimizer(characteristic);
+        for (Gate g : circuit) {
+            if (g.getType() == Type.INPUT) continue;
+            for (Gate in : g.getIn()) {
+                opt.readers.merge(in, 1, Integer::sum);
+            }
+        }
+        for (Gate g : circuit) {
+            opt.add(g);
+        }
+        return opt.live();
+    }
+
+    private void add(Gate g) {
+        Gate[] ins = g.getIn();
+        switch (g.getType()) {
+            case INPUT:
+                rep.put(g, g);
+                res.add(g);
+                atom(g);
+                break;
+            case OUTPUT: {
+                Gate out = new Gate(Type.OUTPUT);
+                out.setIn(new Gate[]{rep.get(ins[0])});
+                rep.put(g, out);
+                res.add(out);
+                break;
+            }
+            case MULT:
+                rep.put(g, mult(rep.get(ins[0]), rep.get(ins[1])));
+                break;
+            case CONST:
+                rep.put(g, linear(ins, new long[]{g.getLabel()}, 0));
+                break;
+            case ADD:
+                rep.put(g, linear(ins, new long[]{1, 1}, 0));
+                break;
+            case DOT:
+                rep.put(g, dot(ins));
+                break;
+            default:
+                rep.put(g, linear(ins, g.getCoeffs(), g.getOffset()));
+        }
+    }
+
+    private Gate mult(Gate x, Gate y) {
+        // A multiplication by a public constant c is c times the other input.
+        if (form.get(x).atoms.length == 0)
+            return linear(null, new Gate[]{y}, new long[]{form.get(x).offset}, 0);
+        if (form.get(y).atoms.length == 0)
+            return linear(null, new Gate[]{x}, new long[]{form.get(y).offset}, 0);
+
+        int a = id.get(x);
+        int b = id.get(y);
+        long key = (long) Math.min(a, b) << 32 | Math.max(a, b);
+        Gate g = products.get(key);
+        if (g == null) {
+            g = new Gate(Type.MULT);
+            g.setIn(new Gate[]{x, y});
+            res.add(g);
+            atom(g);
+            products.put(key, g);
+        }
+        return g;
+    }
+
+    // A DOT gate of length 1 is a multiplication gate, any other is an atom.
+    private Gate dot(Gate[] ins) {
+        Gate[] reps = new Gate[ins.length];
+        for (int i = 0; i < ins.length; i++) {
+            reps[i] = rep.get(ins[i]);
+        }
+        if (reps.length == 2)
+            return mult(reps[0], reps[1]);
+        Gate g = new Gate(Type.DOT);
+        g.setIn(reps);
+        res.add(g);
+        atom(g);
+        return g;
+    }
+
+    // Returns a gate computing offset + coeffs[0]*ins[0] + ... for the gates ins of the original circuit.
+    private Gate linear(Gate[] ins, long[] coeffs, long offset) {
+        Gate[] reps = new Gate[ins.length];
+        for (int i = 0; i < ins.length; i++) {
+            reps[i] = rep.get(ins[i]);
+        }
+        return linear(ins, reps, coeffs, offset);
+    }
+
+    // As above for the gates reps of the optimized circuit, where ins are the gates of the original circuit they stand
+    // for, or null.
+    private Gate linear(Gate[] ins, Gate[] reps, long[] coeffs, long offset) {
+        // The sum over the atoms, null if it is not small.
+        Form f = (int) offset == offset ? new Form(new int[0], new long[0], offset) : null;
+        for (int i = 0; i < reps.length && f != null; i++) {
+            f = (int) coeffs[i] == coeffs[i] ? f.plus(form.get(reps[i]).scale(coeffs[i])) : null;
+            if (f != null && !f.small()) f = null;
+        }
+        if (f != null) {
+            Gate g = linear.get(f);
+            if (g != null)
+                return g;
+            if (f.offset == 0 && f.atoms.length == 1 && f.coeffs[0] == 1)
+                return atoms.get(f.atoms[0]);
+        }
+
+        // The sum over the gates read, where the terms of a gate read twice are added up.
+        LinkedHashMap<Gate, Long> terms = new LinkedHashMap<>();
+        for (int i = 0; i < reps.length; i++) {
+            if (terms.merge(reps[i], reduce(coeffs[i]), (a, b) -> reduce(a + b)) == 0)
+                terms.remove(reps[i]);
+        }
+        int cost = terms.size();
+        for (int i = 0; ins != null && i < ins.length; i++) {
+            if (reps[i].getType() == Type.LINEAR && readers.get(ins[i]) == 1)
+                cost += reps[i].getIn().length;
+        }
+
+        Gate g = new Gate(Type.LINEAR);
+        if (f != null && f.atoms.length <= cost) {
+            Gate[] in = new Gate[f.atoms.length];
+            for (int i = 0; i < in.length; i++) {
+                in[i] = atoms.get(f.atoms[i]);
+            }
+            g.setLinear(in, f.coeffs, f.offset);
+        } else {
+            Gate[] in = terms.keySet().toArray(new Gate[0]);
+            long[] c = new long[in.length];
+            for (int i = 0; i < in.length; i++) {
+                c[i] = terms.get(in[i]);
+            }
+            g.setLinear(in, c, reduce(offset));
+        }
+        res.add(g);
+        if (f != null) {
+            id.put(g, id.size());
+            form.put(g, f);
+            linear.put(f, g);
+        } else {
+            atom(g);
+        }
+        return g;
+    }
+
+    // The residue of c of smallest absolute value modulo the characteristic, so -1 stays -1 in large fields.
+    private long reduce(long c) {
+        if (characteristic == 0)
+            return c;
+        long r = Math.floorMod(c, characteristic);
+        return r > characteristic / 2 ? r - characteristic : r;
+    }
+
+    private void atom(Gate g) {
+        int a = atoms.size();
+        atoms.add(g);
+        id.put(g, id.size());
+        Form f = new Form(new int[]{a}, new long[]{1}, 0);
+        form.put(g, f);
+        linear.putIfAbsent(f, g);
+    }
+
+    // The input gates and the gates which reach an output gate.
+    private Gate[] live() {
+        IdentityHashMap<Gate, Boolean> used = new IdentityHashMap<>();
+        for (int i = res.size() - 1; i >= 0; i--) {
+            Gate g = res.get(i);
+            if (g.getType() == Type.OUTPUT || used.containsKey(g)) {
+                used.put(g, true);
+                if (g.getType() != Type.INPUT) {
+                    for (Gate in : g.getIn()) {
+                        used.put(in, true);
+                    }
+                }
+            }
+        }
+        ArrayList<Gate> circuit = new ArrayList<>();
+        for (Gate g : res) {
+            if (g.getType() == Type.INPUT || used.containsKey(g))
+                circuit.add(g);
+        }
+        return circuit.toArray(new Gate[0]);
+    }
+}
@@ -0,0 +1,302 @@
+import java.util.IdentityHashMap;
+
+/*
+Structure-of-arrays form of a circuit, which the protocols evaluate instead of following the pointers of the Gate
+objects. Gate i has the opcode opcode[i], reads the wires in0[i] and in1[i] and its value is stored in value[i].
+The gates are sorted by level, and the gates, multiplication gates and output gates of level l are found in
+    [levelStart[l], levelStart[l+1]), mults[multStart[l]..multStart[l+1]) and outputs[outputStart[l]..outputStart[l+1]).
+Level 0 holds the input gates.
+A LINEAR gate i has no in0 and in1, it reads the wires termWire[termStart[i]..termStart[i+1]) with the coefficients
+termCoeff[..] and adds offset[i]. A DOT gate reads the same range, the first half times the second half. The DOT
+gates of level l are dots[dotStart[l]..dotStart[l+1]), they are evaluated along with the multiplication gates.
+ */
+public class CompiledCircuit {
+    static final int INPUT = 0;
+    static final int OUTPUT = 1;
+    static final int MULT = 2;
+    static final int CONST = 3;
+    static final int ADD = 4;
+    static final int LINEAR = 5;
+    static final int DOT = 6;
+
+    final int size; // Number of gates in the circuit
+    final int[] opcode;
+    final int[] in0;
+    final int[] in1;
+    // The constant of a CONST gate and the party providing the input of an INPUT gate.
+    final int[] constant;
+    // The values of the wires and, for CGH18, the values of the verification circuit.
+    final long[] value;
+    final long[] verf;
+    final int[] termStart;
+    final int[] termWire;
+    final long[] termCoeff;
+    final long[] offset;
+    // termCoeff and offset mapped into the field of the last prepare.
+    private Field mapped;
+    private long[] fieldCoeff;
+    private long[] fieldOffset;
+
+    final int numberOfInputs;
+    final int numberOfLevels;
+    final int[] levelStart;
+    final int[] mults;
+    final int[] multStart;
+    final int[] dots;
+    final int[] dotStart;
+    final int[] outputs;
+    final int[] outputStart;
+
+    // The wire holding the constant 1 which ADD gates may add to, -1 if the circuit has none. It is not a gate.
+    // Circuits from ImportCircuit use the offset of LINEAR gates instead.
+    final int one;
+
+    private final Gate[] gates;
+    private final Gate oneGate;
+
+    private CompiledCircuit(Gate[] circuit) {
+        gates = circuit;
+        size = circuit.length;
+
+        // The constant 1 is hung off the first input gate.
+        oneGate = (size > 0 && circuit[0].getIn() != null) ? circuit[0].getIn()[0] : null;
+        one = oneGate == null ? -1 : size;
+
+        // A gate may appear more than once in the array (e.g. merged circuits), its readers use the first one.
+        IdentityHashMap<Gate, Integer> index = new IdentityHashMap<>();
+        for (int i = 0; i < size; i++) {
+            index.putIfAbsent(circuit[i], i);
+        }
+        if (oneGate != null)
+            index.put(oneGate, one);
+
+        int wires = one == -1 ? size : size + 1;
+        opcode = new int[size];
+        in0 = new int[size];
+        in1 = new int[size];
+        constant = new int[size];
+        value = new long[wires];
+        verf = new long[wires];
+        termStart = new int[size + 1];
+        offset = new long[size];
+        int nrTerms = 0;
+        for (Gate g : circuit) {
+            if (g.getType() == Type.LINEAR || g.getType() == Type.DOT) nrTerms += g.getIn().length;
+        }
+        termWire = new int[nrTerms];
+        termCoeff = new long[nrTerms];
+        int term = 0;
+
+        int inputs = 0;
+        int nrMults = 0;
+        int nrDots = 0;
+        int nrOutputs = 0;
+        int nrLevels = 1;
+        for (int i = 0; i < size; i++) {
+            Gate g = circuit[i];
+            opcode[i] = opcodeOf(g.getType());
+            constant[i] = g.getLabel();
+            in0[i] = -1;
+            in1[i] = -1;
+            termStart[i] = term;
+            if (opcode[i] == LINEAR) {
+                Gate[] ins = g.getIn();
+                for (int j = 0; j < ins.length; j++) {
+                    termWire[term] = index.get(ins[j]);
+                    termCoeff[term++] = g.getCoeffs()[j];
+                }
+                offset[i] = g.getOffset();
+            } else if (opcode[i] == DOT) {
+                for (Gate in : g.getIn()) {
+                    termWire[term] = index.get(in);
+                    termCoeff[term++] = 1;
+                }
+            } else if (opcode[i] != INPUT) {
+                Gate[] ins = g.getIn();
+                in0[i] = index.get(ins[0]);
+                if (ins.length > 1)
+                    in1[i] = index.get(ins[1]);
+            } else if (inputs == i) {
+                inputs++;
+            }
+            if (opcode[i] == MULT) nrMults++;
+            if (opcode[i] == DOT) nrDots++;
+            if (opcode[i] == OUTPUT) nrOutputs++;
+            if (i > 0 && g.getLevel() != circuit[i-1].getLevel()) nrLevels++;
+        }
+        termStart[size] = term;
+        numberOfInputs = inputs;
+        if (oneGate != null)
+            value[one] = oneGate.getValue();
+
+        // Precompute the boundaries of the levels and the multiplication and output gates of every level.
+        numberOfLevels = nrLevels;
+        levelStart = new int[nrLevels + 1];
+        multStart = new int[nrLevels + 1];
+        outputStart = new int[nrLevels + 1];
+        mults = new int[nrMults];
+        dotStart = new int[nrLevels + 1];
+        dots = new int[nrDots];
+        int d = 0;
+        outputs = new int[nrOutputs];
+        int lvl = 0;
+        int m = 0;
+        int o = 0;
+        for (int i = 0; i < size; i++) {
+            if (i > 0 && circuit[i].getLevel() != circuit[i-1].getLevel()) {
+                lvl++;
+                levelStart[lvl] = i;
+                multStart[lvl] = m;
+                dotStart[lvl] = d;
+                outputStart[lvl] = o;
+            }
+            if (opcode[i] == MULT) mults[m++] = i;
+            if (opcode[i] == DOT) dots[d++] = i;
+            if (opcode[i] == OUTPUT) outputs[o++] = i;
+        }
+        levelStart[nrLevels] = size;
+        multStart[nrLevels] = m;
+        dotStart[nrLevels] = d;
+        outputStart[nrLevels] = o;
+    }
+
+    // The number of levels with multiplication, DOT or output gates, which is the number of rounds of the evaluation.
+    int rounds() {
+        int res = 0;
+        for (int lvl = 0; lvl < numberOfLevels; lvl++) {
+            if (multStart[lvl+1] != multStart[lvl] || dotStart[lvl+1] != dotStart[lvl]
+                    || outputStart[lvl+1] != outputStart[lvl])
+                res++;
+        }
+        return res;
+    }
+
+    static CompiledCircuit compile(Gate[] circuit) {
+        return new CompiledCircuit(circuit);
+    }
+
+    private static int opcodeOf(Type type) {
+        switch (type) {
+            case INPUT: return INPUT;
+            case OUTPUT: return OUTPUT;
+            case MULT: return MULT;
+            case CONST: return CONST;
+            case LINEAR: return LINEAR;
+            case DOT: return DOT;
+            default: return ADD;
+        }
+    }
+
+    // Maps the coefficients and offsets of the LINEAR gates into the field. The protocols call it at the start of a run,
+    // before any thread evaluates a LINEAR gate, so the evaluation only reads them.
+    void prepare(Field field) {
+        if (mapped == field)
+            return;
+        fieldCoeff = new long[termCoeff.length];
+        fieldOffset = new long[size];
+        for (int i = 0; i < termCoeff.length; i++) {
+            fieldCoeff[i] = field.fromLong(termCoeff[i]);
+        }
+        for (int i = 0; i < size; i++) {
+            fieldOffset[i] = field.fromLong(offset[i]);
+        }
+        mapped = field;
+    }
+
+    /*
+    The value of LINEAR gate k, where wires holds the values of its inputs and one is the value standing for the
+    constant 1: field.fromLong(1) for values and shares, and [r] for the values of the verification circuit of CGH18.
+    */
+    long linear(Field field, long[] wires, int k, long one) {
+        if (mapped != field)
+            throw new IllegalStateException("The circuit is not prepared for the field");
+        long res = field.multiply(fieldOffset[k], one);
+        for (int j = termStart[k]; j < termStart[k+1]; j++) {
+            res = field.add(res, field.multiply(fieldCoeff[j], wires[termWire[j]]));
+        }
+        return res;
+    }
+
+    // The inner product of DOT gate k, where xs holds the values of the first half of its inputs and ys those of the
+    // second half. CGH18 passes the values of the verification circuit as xs.
+    long dot(Field field, long[] xs, long[] ys, int k) {
+        int half = (termStart[k+1] - termStart[k]) / 2;
+        long res = 0;
+        for (int j = termStart[k]; j < termStart[k] + half; j++) {
+            res = field.add(res, field.multiply(xs[termWire[j]], ys[termWire[j + half]]));
+        }
+        return res;
+    }
+
+    int getNumberOfMults() {
+        return mults.length;
+    }
+
+    int getNumberOfDots() {
+        return dots.length;
+    }
+
+    int getNumberOfOutputs() {
+        return outputs.length;
+    }
+
+    // Number of input gates whose input is provided by partyNr.
+    int getNumberOfInputs(int partyNr) {
+        int res = 0;
+        for (int i = 0; i < numberOfInputs; i++) {
+            if (constant[i] == partyNr) res++;
+        }
+        return res;
+    }
+
+    // Evaluates the circuit in the clear, level by level, with inputs[i] as the value of input gate i.
+    // Returns the values of the output gates.
+    long[] evaluatePlain(Field field, long[] inputs) {
+        prepare(field);
+        long[] wires = new long[value.length];
+        System.arraycopy(inputs, 0, wires, 0, numberOfInputs);
+        if (one != -1)
+            wires[one] = field.fromLong(1);
+
+        long one = field.fromLong(1);
+        long[] res = new long[outputs.length];
+        int out = 0;
+        for (int lvl = 1; lvl < numberOfLevels; lvl++) {
+            for (int k = levelStart[lvl]; k < levelStart[lvl+1]; k++) {
+                switch (opcode[k]) {
+                    case ADD:
+                        wires[k] = field.add(wires[in0[k]], wires[in1[k]]);
+                        break;
+                    case CONST:
+                        wires[k] = field.multiply(wires[in0[k]], field.fromLong(constant[k]));
+                        break;
+                    case MULT:
+                        wires[k] = field.multiply(wires[in0[k]], wires[in1[k]]);
+                        break;
+                    case LINEAR:
+                        wires[k] = linear(field, wires, k, one);
+                        break;
+                    case DOT:
+                        wires[k] = dot(field, wires, wires, k);
+                        break;
+                    case OUTPUT:
+                        wires[k] = wires[in0[k]];
+                        res[out++] = wires[k];
+                        break;
+                }
+            }
+        }
+        return res;
+    }
+
+    // Copies the values back to the Gate objects the circuit was compiled from.
+    void writeBack() {
+        for (int i = 0; i < size; i++) {
+            gates[i].setValue(value[i]);
+            gates[i].setVerf(verf[i]);
+            gates[i].setComputed();
+        }
+        if (oneGate != null)
+            oneGate.setVerf(verf[one]);
+    }
+}
@@ -1,5 +1,6 @@
+// A connection to one other party. How the frames of the other party are received depends on the transport, see
+// PullConnection and NioTransport.
 public interface Connection {
     void send(byte[] s);
-    String receive();
     void close();
 }
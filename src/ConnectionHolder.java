@@ -1,92 +1,190 @@
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.math.BigInteger;
+import java.nio.channels.SocketChannel;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
-import static java.lang.Thread.sleep;
-
 
 public class ConnectionHolder {
     private int n;
     private int partyNr;
 
+    private Field field;
+    private int elementBytes; // Number of bytes of a field element in the binary wire format.
+    private final boolean references; // Whether the elements go over the wire as BigIntegers, see Field.
+
+    // The wire format used for the share messages. It has to be the same for all the parties of a run.
+    static WireFormat wireFormat = WireFormat.BINARY;
+    // First byte of a binary share frame. Text frames start with a digit, messages with '%' or 'B'.
+    static final byte BINARY_FRAME = 1;
+
+    // How the connections to the other parties are made. It has to be the same for all the parties of a run.
+    static Transport transport = Transport.SOCKET;
+    // The number of sockets to every other party with the SOCKET transport. Rounds with many elements for a party are
+    // split into one frame per stream, each stream with its own writer and receiver. It has to be the same for all
+    // the parties of a run.
+    static int streams = 1;
+    // A round is only split if every stream gets at least this many elements, as small frames gain nothing from it.
+    static final int STRIPE_ELEMENTS = 1024;
+
     private int[] ports;
     private String[] hostnames;
-    private Thread[] connections;
+    private Connection[] connections;
+    // The streams 1, ..., streams-1 to every party, stream 0 is connections[i]. null if there is only one stream.
+    private PullConnection[][] extraStreams;
+    private NioTransport nio;
     private boolean receiveContinue = true;
-    private int number_of_elements_to_send = 1;
-    private int elements_send_currently = 0;
     private String[] message;
 
-    private ConcurrentHashMap<Integer, BigInteger[]> receivedFromPid = new ConcurrentHashMap<>();
+    // Marks an element which has not been received yet. Elements are in [0, p) so it is never a valid element.
+    static final long EMPTY = -1;
+    private ConcurrentHashMap<Integer, Slot> receivedFromPid = new ConcurrentHashMap<>();
 
     int bytesSend = 0;
     int nrOfSharesSend = 0;
     int messagesSend = 0;
+    // The number of rounds, i.e. of closed batches and messages sent, as every round sends once.
+    long roundsSend = 0;
     public long time;
+    // How long the rounds take from their send to their last receive.
+    final LatencyHistogram roundLatency = new LatencyHistogram();
+
+    // The phases of the current run, see phase().
+    private ArrayList<PhaseStats> phases = new ArrayList<>();
+    private PhaseStats currentPhase;
+    private long[] phaseStart;
     private Receiver[] receivers;
 
 
-    public ConnectionHolder(int n, int partyNr, int[] ports, String[] hostnames) {
+    public ConnectionHolder(int n, int partyNr, int[] ports, String[] hostnames, Field field) {
         this.n = n;
         this.partyNr = partyNr;
+        this.field = field;
+        elementBytes = (field.bitLength() + 7) / 8;
+        references = field.referencesElements();
 
         this.ports = ports;
         this.hostnames = hostnames;
-        connections = new Thread[n];
+        connections = new Connection[n];
         time = 0;
         message = new String[n];
     }
 
     // Setup connection to all the parties.
     public void setup() {
-        for (int i = 0; i<n; i++) {
-            // IF we are trying to make a connection with ourself we make a local connection.
-            if (i == partyNr) connections[i] = new LocalConnection();
-                // else we make a Socket connection.
-            else {
-                connections[i] = new SocketConnection(ports[i], hostnames[i]);
-                connections[i].start();
+        if (transport == Transport.NIO) {
+            setupNio();
+            return;
+        }
+        // The sockets to all the other parties, see PeerChannels.
+        SocketChannel[] channels = null;
+        if (transport == Transport.SOCKET && streams > 1) {
+            try {
+                SocketChannel[][] all = PeerChannels.connect(n, partyNr, ports, hostnames, streams);
+                channels = new SocketChannel[n];
+                extraStreams = new PullConnection[n][streams - 1];
+                for (int i = 0; i < n; i++) {
+                    if (i == partyNr) continue;
+                    channels[i] = all[i][0];
+                    for (int c = 1; c < streams; c++) {
+                        extraStreams[i][c - 1] = new SocketConnection(all[i][c]);
+                    }
+                }
+            } catch (IOException e) {
+                System.out.println("Not able to connect to the other parties!");
+                e.printStackTrace();
+                return;
+            }
+        } else if (transport != Transport.MEMORY) {
+            try {
+                channels = PeerChannels.connect(n, partyNr, ports, hostnames);
+            } catch (IOException e) {
+                System.out.println("Not able to connect to the other parties!");
+                e.printStackTrace();
+                return;
             }
         }
-        // Make sure all the connections are set up before continuing.
         for (int i = 0; i<n; i++) {
-            while (connections[i].isAlive()) {
+            // There is no connection to ourself, see deliverToSelf.
+            if (i == partyNr) continue;
+            if (transport == Transport.MEMORY) connections[i] = MemoryConnection.connect(ports[partyNr], ports[i], partyNr, i);
+            else if (transport == Transport.SHARED_MEMORY && hostnames[i].equals(hostnames[partyNr])) {
+                SharedMemoryConnection connection = new SharedMemoryConnection(channels[i], ports[partyNr], partyNr, i);
+                connection.start();
+                connections[i] = connection;
+            }
+                // else we make a Socket connection.
+            else {
                 try {
-                    sleep(10);
-                } catch (InterruptedException e) {
+                    connections[i] = new SocketConnection(channels[i]);
+                } catch (IOException e) {
+                    System.out.println("Not able to set up the connection to party " + i + "!");
                     e.printStackTrace();
                 }
             }
         }
+        // Make sure the shared memory connections are set up before continuing.
+        for (int i = 0; i<n; i++) {
+            if (!(connections[i] instanceof Thread)) continue;
+            try {
+                ((Thread) connections[i]).join();
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        }
 
         // This is where we store the element without pids.
-        receivedFromPid.put(-1, new BigInteger[n]);
+        receivedFromPid.put(-1, new Slot(-1));
 
-        receivers = new Receiver[n];
-        for (int i = 0; i<n; i++) {
+        int streamCount = streamCount();
+        receivers = new Receiver[(n - 1) * streamCount];
+        for (int i = 0, k = 0; i<n; i++) {
+            if (i == partyNr) continue;
             // System.out.println(partyNr + " Receiver " + i + " started");
-            receivers[i] = new Receiver(i);
-            receivers[i].start();
+            for (int c = 0; c < streamCount; c++) {
+                // Only the connections of NioTransport are not pulled, and they have no receivers.
+                receivers[k] = new Receiver(i, (PullConnection) stream(i, c));
+                receivers[k++].start();
+            }
         }
     }
 
+    // All the other parties are multiplexed on the selector thread of NioTransport, which hands the frames directly
+    // to handleFrame, so there are no receivers.
+    private void setupNio() {
+        nio = new NioTransport(n, partyNr, ports, hostnames, this::handleFrame);
+        nio.connect();
+        for (int i = 0; i<n; i++) {
+            if (i != partyNr) connections[i] = nio.connection(i);
+        }
+
+        receivedFromPid.put(-1, new Slot(-1));
+
+        receivers = new Receiver[0];
+        nio.start();
+    }
+
     // Stop the connections
     public void stop() {
         receiveContinue = false;
-        for (Thread t : connections)
-            ((Connection) t).close();
-        for (Thread t : connections) {
-            try {
-                t.join();
-            } catch (InterruptedException e) {
-                e.printStackTrace();
+        for (int i = 0; i < n; i++) {
+            if (i == partyNr) continue;
+            for (int c = 0; c < streamCount(); c++) {
+                stream(i, c).close();
             }
         }
+        if (nio != null)
+            nio.close();
         for (Receiver r : receivers) {
             try {
                 r.join();
@@ -96,314 +194,453 @@ public class ConnectionHolder {
         }
     }
 
-    // A class extending thread for running in parallel to look for received messages from its designated party.
+    private int streamCount() {
+        return extraStreams == null ? 1 : streams;
+    }
+
+    private Connection stream(int i, int c) {
+        return c == 0 ? connections[i] : extraStreams[i][c - 1];
+    }
+
+    // A class extending thread for running in parallel to look for received messages from its designated party, on
+    // one of the streams to it.
     class Receiver extends Thread {
         private int connectionNr;
+        private PullConnection connection;
 
-        Receiver(int connectionNr) {
+        Receiver(int connectionNr, PullConnection connection) {
             this.connectionNr = connectionNr;
+            this.connection = connection;
         }
 
         public void run() {
             while (receiveContinue) {
-                String received = ((Connection) connections[connectionNr]).receive();
-
-                // If this is the case we are either done or there is an error!
-                if(received == null)
+                // If this is false we are either done or there is an error!
+                if (!connection.receive(connectionNr, ConnectionHolder.this::handleFrame))
                     break;
-
-                if (received.startsWith("%")) {
-                    message[connectionNr] = received.substring(1);
-                } else {
-                    pid_and_BigInteger[] pidres_array = getPidAndRes(received);
-                    for (pid_and_BigInteger pidres : pidres_array) {
-                        int pid = pidres.pid;
-                        receivedFromPid.putIfAbsent(pid, new BigInteger[n]);
-
-                        BigInteger res = pidres.x;
-                        receivedFromPid.get(pid)[connectionNr] = res;
-
-                    }
-                }
-
-                synchronized (ConnectionHolder.this) {
-                    ConnectionHolder.this.notifyAll();
-                }
             }
-            ((LocalConnection) connections[partyNr]).close();
         }
 
     }
 
-    private Lock sendLock = new ReentrantLock();
-    private pid_and_BigInteger[][] sendShares_Array;
-    public long timeSending = 0;
-
-    public void sendShares(BigInteger[] shares, int pid) {
-        sendLock.lock();
-        nrOfSharesSend += shares.length;
+    /*
+    The elements received for one pid. The receivers fill in the elements and wake up only the thread waiting for
+    this pid, or complete its future, so a frame does not wake up every waiting protocol thread. There is at most one
+    waiter per pid, as the waiter removes the slot when it is done.
+     */
+    private final class Slot {
+        final int pid;
+        final long[] elements = emptyElements();
+        // Decremented after an element is written, so a waiter which reads it also sees the element.
+        final AtomicInteger missing = new AtomicInteger(n);
+        // The thread or the future waiting for the slot and the party it waits for, -1 if it waits for all of them.
+        volatile Thread waiter;
+        private volatile CompletableFuture<long[]> future;
+        private volatile int waitingFor = -1;
+
+        Slot(int pid) {
+            this.pid = pid;
+        }
 
-        if(sendShares_Array == null)
-            sendShares_Array = new pid_and_BigInteger[number_of_elements_to_send][];
-        pid_and_BigInteger[] pidres_shares = new pid_and_BigInteger[n];
+        void put(int connectionNr, long x) {
+            boolean first = elements[connectionNr] == EMPTY;
+            elements[connectionNr] = x;
+            if (!first)
+                return;
+            // Only wake up the waiter if this is the element it waits for.
+            boolean done = missing.decrementAndGet() == 0;
+            if (!done && connectionNr != waitingFor)
+                return;
+            Thread w = waiter;
+            if (w != null)
+                LockSupport.unpark(w);
+            CompletableFuture<long[]> f = future;
+            if (f != null)
+                complete(f);
+        }
 
-        // Add the shares to the array of shares to be send
-        for (int i = 0; i<n; i++) {
-            pidres_shares[i] = new pid_and_BigInteger(pid, shares[i]);
+        private boolean ready(int i) {
+            return missing.get() == 0 || (i != -1 && elements[i] != EMPTY);
         }
-        sendShares_Array[elements_send_currently] = pidres_shares;
-        elements_send_currently++;
 
-        // all the shares that are to be send has been received.
-        if(elements_send_currently == number_of_elements_to_send) {
-            long t1 = System.currentTimeMillis();
-            byte[][] res = new byte[n][];
-            for (int i = 0; i < n; i++) {
-                res[i] =  new byte[40*number_of_elements_to_send];
-            }
-            int[] count = new int[n];
-            for (int k = 0; k<sendShares_Array.length; k++) {
-                pid_and_BigInteger[] shares_array = sendShares_Array[k];
-                for (int j = 0; j < n; j++) {
-                    pid_and_BigInteger pid_x = shares_array[j];
-                    String str = pid_x.pid + "#" + pid_x.x;
-                    if (k != sendShares_Array.length - 1) {
-                        str += "&";
-                    }
-                    byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
-                    for (byte aByte : bytes) {
-                        res[j][count[j]] = aByte;
-                        count[j]++;
-                    }
-                }
+        // Waits until the element of party i is received, or all the elements if i is -1.
+        void await(int i) {
+            waitingFor = i;
+            waiter = Thread.currentThread();
+            while (!ready(i)) {
+                LockSupport.park(this);
             }
-            for (int i = 0; i < n; i++) {
-                res[i] = Arrays.copyOfRange(res[i], 0, count[i]);
-            }
-            for (int i = 0; i<n; i++) {
-                ((Connection) connections[i]).send(res[i]);
-                messagesSend++;
-                bytesSend +=res[i].length;
-            }
-            elements_send_currently = 0;
-            sendShares_Array = null;
-
-            long t2 = System.currentTimeMillis();
-            timeSending+=t2-t1;
+            waiter = null;
         }
-        sendLock.unlock();
-    }
 
-    private ArrayList<ArrayList<pid_and_BigInteger>> sendToPi_array;
-    private Lock sendPiLock = new ReentrantLock();
-    private int elements_send_currently_Pi = 0;
+        // Returns a future which is completed with the elements when the element of party i is received, or all the
+        // elements if i is -1. The slot is removed when the future is completed.
+        CompletableFuture<long[]> awaitAsync(int i) {
+            CompletableFuture<long[]> f = new CompletableFuture<>();
+            waitingFor = i;
+            future = f;
+            // The elements may all have arrived before the future was set.
+            if (ready(i))
+                complete(f);
+            return f;
+        }
 
-    void sendToPi(int i, BigInteger x, int pid) {
-        sendLock.lock();
-        nrOfSharesSend++;
-        if(sendToPi_array == null) {
-            sendToPi_array = new ArrayList<>();
-            for(int k = 0; k<n; k++) {
-                sendToPi_array.add(null);
+        // Both the receiver and awaitAsync may get here, only the one removing the slot completes the future. The slot
+        // is removed first, as the continuations may send and the answers may reuse the pid.
+        private void complete(CompletableFuture<long[]> f) {
+            if (receivedFromPid.remove(pid, this)) {
+                roundLatency.received();
+                f.complete(elements);
             }
         }
+    }
 
-        if (sendToPi_array.get(i) == null) {
-            sendToPi_array.set(i, new ArrayList<>(number_of_elements_to_send));
-        }
-        sendToPi_array.get(i).add(new pid_and_BigInteger(pid, x));
-        elements_send_currently_Pi++;
+    private Slot slot(int pid) {
+        Slot res = receivedFromPid.get(pid);
+        return res != null ? res : receivedFromPid.computeIfAbsent(pid, Slot::new);
+    }
 
-        if(elements_send_currently_Pi == number_of_elements_to_send) {
-            byte[][] res = new byte[n][];
-            for (int k = 0; k < n; k++) {
-                res[k] =  new byte[40*number_of_elements_to_send];
-            }
-            int[] count = new int[n];
-            for (int k=0; k<n; k++) {
-                ArrayList<pid_and_BigInteger> shares_array = sendToPi_array.get(k);
-                if (shares_array == null)
-                    continue;
-                int size = shares_array.size();
-                for (int j = 0; j<size; j++) {
-                    pid_and_BigInteger pid_x = shares_array.get(j);
-                    String str = pid_x.pid + "#" + pid_x.x;
-                    if (j != size - 1) {
-                        str += "&";
-                    }
-                    byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
-                    for (byte aByte : bytes) {
-                        res[k][count[k]] = aByte;
-                        count[k]++;
-                    }
-                }
+    // Stores the elements or the message of a frame received from connectionNr and wakes up the waiting receive calls.
+    // The frame is the first length bytes of received, which is only valid during the call.
+    void handleFrame(int connectionNr, byte[] received, int length) {
+        if (length > 0 && received[0] == '%') {
+            synchronized (this) {
+                message[connectionNr] = new String(received, 1, length - 1, StandardCharsets.UTF_8);
+                notifyAll();
             }
-            for (int k = 0; k < n; k++) {
-                res[k] = Arrays.copyOfRange(res[k], 0, count[k]);
+        } else if (length > 0 && received[0] == BINARY_FRAME) {
+            decodeBinary(received, length, connectionNr);
+        } else {
+            pid_and_element[] pidres_array = getPidAndRes(new String(received, 0, length, StandardCharsets.UTF_8));
+            for (pid_and_element pidres : pidres_array) {
+                slot(pidres.pid).put(connectionNr, pidres.x);
             }
-            for (int m=0; m<n; m++) {
-                if ( sendToPi_array.get(m) != null) {
-                    String s = new String(res[m], StandardCharsets.UTF_8);
-                    ((Connection) connections[m]).send(res[m]);
-                    bytesSend += res[m].length;
-                    messagesSend++;
-                }
-            }
-            elements_send_currently_Pi = 0;
-            sendToPi_array = null;
         }
-        sendLock.unlock();
     }
 
-    private pid_and_BigInteger[] elements_to_send_all = null;
-    private int number_of_elements_to_send_all = 1;
-    private int elements_send_currently_all = 0;
-    private Lock allLock = new ReentrantLock();
+    /*
+    The frames are encoded by the sending thread and handed to the connections, which queue them for their own writer
+    (SocketConnection, NioTransport) or for the receiver of the other party, so no send blocks on a socket and the
+    sends of different threads go on in parallel. sendLock only guards the counters.
+    The elements for ourself are not encoded or sent, they are put directly in their slots by deliverToSelf. So they
+    are not counted as messages or bytes, but still as shares.
+    With more than one stream, the elements for a party are split into a frame per stream (see stripes). The elements
+    are found by their pids, so the frames need no reassembly and may arrive in any order.
+     */
+    private Lock sendLock = new ReentrantLock();
+    public long timeSending = 0;
 
-    public void sendElementToAll(BigInteger x, int pid) {
-        sendLock.lock();
-        nrOfSharesSend+=n;
-        if(elements_to_send_all == null)
-            elements_to_send_all = new pid_and_BigInteger[number_of_elements_to_send_all];
+    // Opens a batch for the elements of a round, see RoundBatch.
+    RoundBatch openBatch() {
+        return new RoundBatch(this, n);
+    }
 
-        elements_to_send_all[elements_send_currently_all] = new pid_and_BigInteger(pid, x);
+    // Sends the elements of a closed batch, one frame per party which has elements. The round starts with the first
+    // frame, so a batch only for ourself is none.
+    void sendBatch(List<ArrayList<pid_and_element>> toParty, int shares) {
+        long t1 = System.currentTimeMillis();
+        int messages = 0;
+        int bytes = 0;
+        for (int i = 0; i < n; i++) {
+            if (toParty.get(i) == null)
+                continue;
+            if (i == partyNr) {
+                deliverToSelf(toParty.get(i));
+                continue;
+            }
+            pid_and_element[] elements = toParty.get(i).toArray(new pid_and_element[0]);
+            int k = stripes(elements.length);
+            for (int c = 0; c < k; c++) {
+                byte[] res = encodeStripe(elements, c, k);
+                if (messages == 0)
+                    roundLatency.startRound();
+                stream(i, c).send(res);
+                messages++;
+                bytes += res.length;
+            }
+        }
+        count(shares, messages, bytes, t1);
+    }
 
+    /*
+    Sends the same elements to all the parties. Each frame is encoded once and the connections share it, so they must
+    not change it. shares is the number of elements it stands for in total.
+     */
+    void broadcast(ArrayList<pid_and_element> own, int shares) {
+        if (n > 1)
+            roundLatency.startRound();
+        long t1 = System.currentTimeMillis();
+        pid_and_element[] elements = own.toArray(new pid_and_element[0]);
+        int k = stripes(elements.length);
+        int bytes = 0;
+        for (int c = 0; c < k; c++) {
+            byte[] frame = encodeStripe(elements, c, k);
+            for (int i = 0; i < n; i++) {
+                if (i != partyNr)
+                    stream(i, c).send(frame);
+            }
+            bytes += (n - 1) * frame.length;
+        }
+        deliverToSelf(own);
+        count(shares, (n - 1) * k, bytes, t1);
+    }
 
-        elements_send_currently_all++;
+    // The number of streams a round of count elements for a party is split into.
+    private int stripes(int count) {
+        return Math.max(1, Math.min(streamCount(), count / STRIPE_ELEMENTS));
+    }
 
-        if(elements_send_currently_all == number_of_elements_to_send_all) {
-            byte[] res = new byte[40*number_of_elements_to_send_all];
-            int count = 0;
-            for (int j = 0; j< elements_to_send_all.length; j++) {
-                pid_and_BigInteger pid_x = elements_to_send_all[j];
-                String str = pid_x.pid + "#" + pid_x.x;
-                if (j != elements_to_send_all.length - 1) {
-                    str += "&";
-                }
-                byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
-                for (byte aByte : bytes) {
-                    res[count] = aByte;
-                    count++;
-                }
-            }
-            res = Arrays.copyOfRange(res, 0, count);
+    // Encodes the c'th of k equal parts of the elements.
+    private byte[] encodeStripe(pid_and_element[] elements, int c, int k) {
+        if (k == 1)
+            return encode(elements, elements.length);
+        int from = (int) ((long) elements.length * c / k);
+        int to = (int) ((long) elements.length * (c + 1) / k);
+        return encode(Arrays.copyOfRange(elements, from, to), to - from);
+    }
 
-            for (int i = 0; i<n; i++) {
-                String s = new String(res, StandardCharsets.UTF_8);
-                ((Connection) connections[i]).send(res);
-                bytesSend += res.length;
-                messagesSend++;
-            }
-            elements_send_currently_all = 0;
-            elements_to_send_all = null;
-            long t2 = System.currentTimeMillis();
+    // Puts the elements sent to ourself directly in their slots, as if they were received from partyNr.
+    private void deliverToSelf(ArrayList<pid_and_element> elements) {
+        for (pid_and_element e : elements) {
+            slot(e.pid).put(partyNr, e.x);
         }
+    }
+
+    private void count(int shares, int messages, int bytes, long t1) {
+        sendLock.lock();
+        nrOfSharesSend += shares;
+        messagesSend += messages;
+        if (messages > 0)
+            roundsSend++;
+        bytesSend += bytes;
+        timeSending += System.currentTimeMillis() - t1;
         sendLock.unlock();
     }
 
-    public void sendMessageToAll(String s) {
-        for (int i = 0; i<n; i++) {
-            ((Connection) connections[i]).send(s.getBytes());
-        }
+    // The single element versions of the batch operations, which send at once.
+    public void sendShares(long[] shares, int pid) {
+        RoundBatch batch = openBatch();
+        batch.addShares(shares, pid);
+        batch.close();
     }
 
+    void sendToPi(int i, long x, int pid) {
+        RoundBatch batch = openBatch();
+        batch.addToPi(i, x, pid);
+        batch.close();
+    }
 
-    public BigInteger[] receive(int pid) {
+    public void sendElementToAll(long x, int pid) {
+        RoundBatch batch = openBatch();
+        batch.addToAll(x, pid);
+        batch.close();
+    }
 
-        // We wait until the value of pid is put in the map -- which is done when an element is
-        // received and thus we wait to check until notified from the receiver.
-        while(receivedFromPid.get(pid) == null) {
-            synchronized (this) {
-                try {
-                    wait();
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
-                }
-            }
+    // The message goes on the first stream to every party, so the messages keep their order.
+    public void sendMessageToAll(String s) {
+        roundLatency.startRound();
+        long t1 = System.currentTimeMillis();
+        byte[] frame = s.getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < n; i++) {
+            if (i != partyNr)
+                connections[i].send(frame);
         }
+        handleFrame(partyNr, frame, frame.length);
+        count(0, n - 1, (n - 1) * frame.length, t1);
+    }
 
-        BigInteger[] recPid = receivedFromPid.get(pid);
-        for (int i = 0; i<n; i++) {
-            while (recPid[i] == null) {
-                synchronized (this) {
-                    try {
-                        wait();
-                    } catch (InterruptedException e) {
-                        e.printStackTrace();
-                    }
-                }
-            }
-        }
-        return receivedFromPid.remove(pid);
+
+    public long[] receive(int pid) {
+        // We wait until all the elements of pid are received.
+        slot(pid).await(-1);
+        roundLatency.received();
+        return receivedFromPid.remove(pid).elements;
     }
 
 
-    public BigInteger receiveFromPi(int i, int pid) {
+    public long receiveFromPi(int i, int pid) {
         long t1 = System.nanoTime();
-        // wait until receviedFromPid has a field with pid.
-        while(receivedFromPid.get(pid) == null) {
-            synchronized (this) {
-                try {
-                    wait(10);
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
-                }
-            }
-        }
-        while(receivedFromPid.get(pid)[i] == null) {
-            synchronized (this) {
-                try {
-                    wait(10);
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
-                }
-            }
-        }
-        BigInteger res = receivedFromPid.remove(pid)[i];
+        // wait until the element from party i is received.
+        slot(pid).await(i);
+        long res = receivedFromPid.remove(pid).elements[i];
         long t2 = System.nanoTime();
+        roundLatency.received();
         time = (t2-t1)/1000000;
         return res;
     }
 
+    /*
+    The asynchronous versions of receive and receiveFromPi, which return at once instead of blocking a thread until
+    the elements arrive. The futures are completed by the receiver threads, so actions depending on them which send
+    or do much work should run on an executor (e.g. thenAcceptAsync) and not on the receiver thread.
+     */
+    public CompletableFuture<long[]> receiveAsync(int pid) {
+        return slot(pid).awaitAsync(-1);
+    }
+
+    public CompletableFuture<Long> receiveFromPiAsync(int i, int pid) {
+        return slot(pid).awaitAsync(i).thenApply(elements -> elements[i]);
+    }
+
     public String[] receiveMessage() {
-        while(message == null) {
-            synchronized (this) {
-                try {
-                    wait(10);
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
-                }
-            }
-        }
         String[] res = new String[n];
-        for (int i = 0; i < n; i++) {
-            while(message[i] == null) {
-                synchronized (this) {
+        synchronized (this) {
+            for (int i = 0; i < n; i++) {
+                while(message[i] == null) {
                     try {
-                        wait(10);
+                        wait();
                     } catch (InterruptedException e) {
                         e.printStackTrace();
                     }
                 }
+                res[i] = message[i];
             }
-            res[i] = message[i];
+            // The messages are consumed, such that the next call waits for new ones.
+            Arrays.fill(message, null);
         }
+        roundLatency.received();
 
         return res;
     }
 
+    /*
+    Ends the current phase and starts the phase name, or only ends the current phase if name is null. The protocols
+    call phase(null) before they reset the counters at the end of a run.
+     */
+    void phase(String name) {
+        long[] now = {System.nanoTime(), processCpuTime(), bytesSend, messagesSend, nrOfSharesSend, roundsSend};
+        if (currentPhase != null) {
+            currentPhase.wallNanos = now[0] - phaseStart[0];
+            currentPhase.cpuNanos = now[1] - phaseStart[1];
+            currentPhase.bytes = now[2] - phaseStart[2];
+            currentPhase.messages = now[3] - phaseStart[3];
+            currentPhase.shares = now[4] - phaseStart[4];
+            currentPhase.rounds = now[5] - phaseStart[5];
+            phases.add(currentPhase);
+        }
+        currentPhase = name == null ? null : new PhaseStats(name);
+        phaseStart = now;
+    }
+
+    // Returns the phases recorded since the last call.
+    ArrayList<PhaseStats> takePhases() {
+        ArrayList<PhaseStats> res = phases;
+        phases = new ArrayList<>();
+        return res;
+    }
+
+    private static long processCpuTime() {
+        java.lang.management.OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (os instanceof com.sun.management.OperatingSystemMXBean)
+            return ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime();
+        return 0;
+    }
+
     // a class for when receiving an element to contain the pid and the value received.
-    class pid_and_BigInteger {
+    class pid_and_element {
         final int pid;
-        final BigInteger x;
+        final long x;
 
-        pid_and_BigInteger(int pid, BigInteger x) {
+        pid_and_element(int pid, long x) {
             this.pid = pid;
             this.x = x;
         }
     }
-    private pid_and_BigInteger[] getPidAndRes(String received) {
-        pid_and_BigInteger[] pidres = new pid_and_BigInteger[received.length()];
+    private long[] emptyElements() {
+        long[] res = new long[n];
+        Arrays.fill(res, EMPTY);
+        return res;
+    }
+
+    // Encodes the elements in the wire format of this run.
+    byte[] encode(pid_and_element[] elements, int count) {
+        if (wireFormat == WireFormat.BINARY)
+            return encodeBinary(elements, count);
+
+        StringBuilder sb = new StringBuilder(count * 24);
+        for (int j = 0; j < count; j++) {
+            if (j != 0) sb.append('&');
+            sb.append(elements[j].pid).append('#');
+            if (references)
+                sb.append(field.toBigInteger(elements[j].x));
+            else
+                sb.append(elements[j].x);
+        }
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /*
+    The binary frame is the byte BINARY_FRAME followed by the elements, where each element is
+        1. the difference to the previous pid as a zigzag varint (pids are mostly consecutive, so usually one byte),
+        2. the value as an unsigned big-endian integer of exactly elementBytes bytes.
+     */
+    private byte[] encodeBinary(pid_and_element[] elements, int count) {
+        byte[] res = new byte[1 + count * (5 + elementBytes)];
+        res[0] = BINARY_FRAME;
+        int pos = 1;
+        int prevPid = 0;
+        for (int j = 0; j < count; j++) {
+            int delta = elements[j].pid - prevPid;
+            prevPid = elements[j].pid;
+            int zigzag = (delta << 1) ^ (delta >> 31);
+            while ((zigzag & ~0x7F) != 0) {
+                res[pos++] = (byte) ((zigzag & 0x7F) | 0x80);
+                zigzag >>>= 7;
+            }
+            res[pos++] = (byte) zigzag;
+
+            if (references) {
+                // toByteArray has a leading sign byte when the top bit is set.
+                byte[] x = field.toBigInteger(elements[j].x).toByteArray();
+                int len = Math.min(x.length, elementBytes);
+                System.arraycopy(x, x.length - len, res, pos + elementBytes - len, len);
+            } else {
+                long x = elements[j].x;
+                for (int k = elementBytes - 1; k >= 0; k--) {
+                    res[pos + k] = (byte) x;
+                    x >>>= 8;
+                }
+            }
+            pos += elementBytes;
+        }
+        return Arrays.copyOf(res, pos);
+    }
+
+    // Decodes a binary frame of length bytes from connectionNr directly into receivedFromPid.
+    void decodeBinary(byte[] received, int length, int connectionNr) {
+        int pos = 1;
+        int pid = 0;
+        while (pos < length) {
+            int zigzag = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = received[pos++];
+                zigzag |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            pid += (zigzag >>> 1) ^ -(zigzag & 1);
+
+            long x = 0;
+            if (references) {
+                x = field.fromBigInteger(new BigInteger(1, received, pos, elementBytes));
+            } else {
+                for (int k = 0; k < elementBytes; k++) {
+                    x = (x << 8) | (received[pos + k] & 0xFF);
+                }
+            }
+            pos += elementBytes;
+
+            slot(pid).put(connectionNr, x);
+        }
+    }
+
+    private long parseElement(String s) {
+        return references ? field.fromBigInteger(new BigInteger(s)) : Long.parseLong(s);
+    }
+
+    pid_and_element[] getPidAndRes(String received) {
+        pid_and_element[] pidres = new pid_and_element[received.length()];
 
         int i = 0;
         while(received.contains("&")) {
@@ -411,7 +648,7 @@ public class ConnectionHolder {
             String pid = received.substring(0, hashTagidx);
             String res = received.substring(hashTagidx + 1, received.indexOf("&"));
 
-            pidres[i] = new pid_and_BigInteger(Integer.parseInt(pid), new BigInteger(res));
+            pidres[i] = new pid_and_element(Integer.parseInt(pid), parseElement(res));
 
             i++;
             received = received.substring(received.indexOf("&") + 1);
@@ -419,7 +656,7 @@ public class ConnectionHolder {
         int hashTagidx = received.indexOf("#");
         if(hashTagidx == -1) {
             if (received.equals("BOTTOM"))
-                return new pid_and_BigInteger[0];
+                return new pid_and_element[0];
         }
         String pid =  null;
 
@@ -427,69 +664,10 @@ public class ConnectionHolder {
 
         String res = received.substring(hashTagidx + 1);
 
-        pidres[i] = new pid_and_BigInteger(Integer.parseInt(pid), new BigInteger(res));
+        pidres[i] = new pid_and_element(Integer.parseInt(pid), parseElement(res));
 
         // removing all the null values of array
-        pidres = Arrays.stream(pidres).filter(Objects::nonNull).toArray(pid_and_BigInteger[]::new);
+        pidres = Arrays.stream(pidres).filter(Objects::nonNull).toArray(pid_and_element[]::new);
         return pidres;
     }
-
-    void setNrElementsToSend_OPEN(int l) {
-        sendLock.lock();
-
-        number_of_elements_to_send = l;
-        number_of_elements_to_send_all = computeNumberOfElementsToSend_OPEN(l);
-
-        sendLock.unlock();
-    }
-
-    void setNrElementsToSend_MULT(int l) {
-        allLock.lock();
-        sendLock.lock();
-        sendPiLock.lock();
-
-        number_of_elements_to_send = l;
-        number_of_elements_to_send_all = computeNumberOfElementsToSend_MULT(l);
-
-        sendLock.unlock();
-    }
-
-
-    void setNrOfElementsToSend(int l) {
-        sendLock.lock();
-
-        number_of_elements_to_send = l;
-        number_of_elements_to_send_all = l;
-
-        sendLock.unlock();
-    }
-
-    private int computeNumberOfElementsToSend_OPEN(int l) {
-        int ln_floor = Math.floorDiv(l, n);
-        int residue = l - ln_floor*n;
-        if (partyNr < residue) {
-            return (ln_floor + 1);
-        }
-        return ln_floor;
-    }
-
-    private int computeNumberOfElementsToSend_MULT(int l) {
-        // if (l < n*2)
-        int k = l/2;
-        int ln_floor = Math.floorDiv(k, n);
-        int residue = k - ln_floor*n;
-        if (partyNr < residue) {
-            return (ln_floor + 1)*2;
-        }
-        return ln_floor*2;
-    }
-
-    public void resetNrElementsToSend() {
-        sendLock.lock();
-
-        number_of_elements_to_send = 1;
-        number_of_elements_to_send_all = 1;
-
-        sendLock.unlock();
-    }
 }
@@ -1,19 +1,22 @@
 import java.math.BigInteger;
 import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.*;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
 public class DamgaardNielsen implements MPCProtocol {
     private int partyNr;
-    private BigInteger F; // prime generating field F
-    private BigInteger[] x; // inputs of party
+    private Field field; // the field F the circuit is evaluated in
+    private long[] x; // inputs of party
     private int n; // number of parties in the protocol
     private int t; // Maximum number of corrupted parties
 
     public ConnectionHolder connections;
     private SecretSharing ss;
     private int numberOfMults = 0;
+    private int numberOfDots = 0;
     private int numberOfInputs = 0;
     private int numberOfMyinputs = 0;
     private int numberOfMyInputsEvaluated = 0;
@@ -22,122 +25,69 @@ public class DamgaardNielsen implements MPCProtocol {
     private Lock lock = new ReentrantLock();
     private SecureRandom sc;
     // Randomness for input
-    private BigInteger[] r;
+    private long[] r;
 
     DamgaardNielsen(int partyNr, BigInteger F, BigInteger[] x, int n, String[] hostnames, int[] ports) {
         this.partyNr = partyNr;
-        this.F = F;
-        this.x = x;
+        field = Field.of(F);
+        this.x = new long[x.length];
+        for (int i = 0; i < x.length; i++) {
+            this.x[i] = field.fromBigInteger(x[i]);
+        }
         this.n = n;
         t = (int) Math.ceil( n/2.0-1);
-        connections = new ConnectionHolder(n, partyNr, ports, hostnames);
-        ss = new SecretSharing(n, F);
+        connections = new ConnectionHolder(n, partyNr, ports, hostnames, field);
+        ss = new SecretSharing(n, field);
 
         sc = new SecureRandom();
         sc.nextBoolean();
     }
-    private void calcNumberOfMults(Gate[] circuit) {
-        int res = 0;
-        for (Gate g : circuit) {
-            if (g.getType().equals(Type.MULT)) res++;
-        }
-        numberOfMults = res;
+    private void calcNumberOfMults(CompiledCircuit circuit) {
+        numberOfMults = circuit.getNumberOfMults();
+        numberOfDots = circuit.getNumberOfDots();
     }
-    private void calcNumberOfInputs(Gate[] circuit) {
-        int i = 0;
-        int j = 0;
-        while (true) {
-            if(circuit[i].getLabel() == partyNr) j++;
-            if(circuit[i].getType().equals(Type.INPUT)) i++;
-            else break;
-        }
-        numberOfInputs = i;
-        numberOfMyinputs = j;
+    private void calcNumberOfInputs(CompiledCircuit circuit) {
+        numberOfInputs = circuit.numberOfInputs;
+        numberOfMyinputs = circuit.getNumberOfInputs(partyNr);
     }
 
     // Generate l partyNr-sharings and 2t-sharings
     // For running multiple doubleRandoms in parallel.
-    private void doubleRandom1(int pid) {
-        int b = F.bitLength();
-        // Generate doubleRandom si
-        BigInteger si;
-        // Check if si was generated inside the field.
-        do {
-            si = new BigInteger(b, sc);
-        }
-        while (si.compareTo(F) > 0);
-        BigInteger[] tSharing = ss.secretSharing(t,si);
-        BigInteger[] two_tSharing = ss.secretSharing(2*t,si);
-
-
-        connections.sendShares(tSharing, pid);
-
-        pid++;
-
-        connections.sendShares(two_tSharing, pid);
+    private void doubleRandom1(int batches, int pid) {
+        // Generate a doubleRandom si per batch and share them all at once
+        long[] si = ss.random(batches);
+        long[][] tSharings = ss.secretSharing(t, si);
+        long[][] two_tSharings = ss.secretSharing(2*t, si);
+
+        RoundBatch batch = connections.openBatch();
+        for (int b = 0; b < batches; b++) {
+            batch.addShares(tSharings[b], pid + 2*b);
+            batch.addShares(two_tSharings[b], pid + 2*b + 1);
+        }
+        batch.close();
     }
 
-    private BigInteger[][] doubleRandom2(int l, int pid) {
-        BigInteger[] tShares = connections.receive(pid);
+    private long[][] doubleRandom2(int l, int pid) {
+        long[] tShares = connections.receive(pid);
         pid++;
-        BigInteger[] two_tShares = connections.receive(pid);
-        // Randomness extraction matrix
-        BigInteger[] M = new BigInteger[n];
-        for (int i = 0; i<n; i++) {
-            M[i] = new BigInteger(Integer.toString(n)).mod(F);
-        }
-
-        // Randomness
-        BigInteger[][] res = new BigInteger[2][l];
-        BigInteger[] r = new BigInteger[l];
-        BigInteger[] R = new BigInteger[l];
-        for (int i = 0; i<l; i++) {
-            BigInteger[] alphas = new BigInteger[n];
+        long[] two_tShares = connections.receive(pid);
 
-            // We create an array consisting of (α1^i, α2^i, ..., αn^i)
-            BigInteger i_bi = new BigInteger(Integer.toString(i));
-            for (int k = 0; k < n; k++) {
-                alphas[k] = M[k].modPow(i_bi, F);
-            }
-
-            r[i] = BigInteger.ZERO;
-            R[i] = BigInteger.ZERO;
-            for (int j = 0; j<n; j++) {
-                // α1^i*r1 + ... + αn^i*rn
-                r[i] = (r[i].add(tShares[j].multiply(alphas[j]))).mod(F);
-                R[i] = (R[i].add(two_tShares[j].multiply(alphas[j]))).mod(F);
-            }
-        }
-        res[0] = r;
-        res[1] = R;
-        return res;
+        // Randomness extraction of l <= n-t double sharings with the same hyper-invertible matrix.
+        return new long[][]{ss.extract(tShares, l), ss.extract(two_tShares, l)};
     }
 
-    private BigInteger[][] doubleRandom(int l, int pid) {
+    private long[][] doubleRandom(int l, int pid) {
+        // No batch is shared for l = 0, so none may be received.
+        if (l == 0)
+            return new long[][]{new long[0], new long[0]};
         int id = pid;
         int m = n - t;
         int k = l;
-        BigInteger[] random = new BigInteger[l];
-        BigInteger[] double_random = new BigInteger[l];
+        long[] random = new long[l];
+        long[] double_random = new long[l];
 
-        connections.setNrOfElementsToSend(2*((int) Math.ceil((double)l / (n-t))));
-
-        do {
-            if (m < k) {
-                int finalId = id;
-                executor.submit(() -> {
-                    doubleRandom1(finalId);
-                });
-                id+=2;
-                k = k - m;
-            } else {
-                int finalId1 = id;
-                executor.submit(() -> {
-                    doubleRandom1(finalId1);
-                });
-                k = 0;
-            }
-        } while (k != 0);
+        // The batches of m are shared with the pids pid, pid+1, ..., two per batch.
+        doubleRandom1((l + m - 1) / m, pid);
 
         k=l;
         Future[] futures = new Future[l/m+1];
@@ -163,7 +113,7 @@ public class DamgaardNielsen implements MPCProtocol {
             if (f == null)
                 break;
             try {
-                BigInteger[][] r = (BigInteger[][]) f.get();
+                long[][] r = (long[][]) f.get();
                 for (int q = 0; q < r[0].length; q++) {
                     random[i] = r[0][q];
                     double_random[i] = r[1][q];
@@ -173,77 +123,38 @@ public class DamgaardNielsen implements MPCProtocol {
                 e.printStackTrace();
             }
         }
-        return new BigInteger[][]{random, double_random};
+        return new long[][]{random, double_random};
     }
 
     // For running multiple doubleRandoms in parallel.
-    private void random1(int pid) {
-        int b = F.bitLength();
-        // Generate doubleRandom si
-        BigInteger si;
-        // Check if si was generated inside the field.
-        do {
-            si = new BigInteger(b, sc);
-        }
-        while (si.compareTo(F) > 0);
-        BigInteger[] tSharing = ss.secretSharing(t,si);
-
-        connections.sendShares(tSharing, pid);
-    }
-
-    private BigInteger[] random2(int l, int pid) {
-        BigInteger[] tShares = connections.receive(pid);
+    private void random1(int batches, int pid) {
+        // Generate a random si per batch and share them all at once
+        long[][] tSharings = ss.secretSharing(t, ss.random(batches));
 
-        // Randomness extraction matrix
-        BigInteger[] M = new BigInteger[n];
-        for (int i = 0; i<n; i++) {
-            M[i] = new BigInteger(Integer.toString(n)).mod(F);
+        RoundBatch batch = connections.openBatch();
+        for (int b = 0; b < batches; b++) {
+            batch.addShares(tSharings[b], pid + b);
         }
+        batch.close();
+    }
 
-        // Randomness
-        BigInteger[] r = new BigInteger[l];
-        for (int i = 0; i<l; i++) {
-            BigInteger[] alphas = new BigInteger[n];
-
-            // We create an array consisting of (α1^i, α2^i, ..., αn^i)
-            BigInteger i_bi = new BigInteger(Integer.toString(i));
-            for (int k = 0; k < n; k++) {
-                alphas[k] = M[k].modPow(i_bi, F);
-            }
+    private long[] random2(int l, int pid) {
+        long[] tShares = connections.receive(pid);
 
-            r[i] = BigInteger.ZERO;
-            for (int j = 0; j<n; j++) {
-                // α1^i*r1 + ... + αn^i*rn
-                r[i] = (r[i].add(tShares[j].multiply(alphas[j]))).mod(F);
-            }
-        }
-        return r;
+        // Randomness extraction of l <= n-t sharings
+        return ss.extract(tShares, l);
     }
 
-    private BigInteger[] random(int l, int pid) {
+    private long[] random(int l, int pid) {
+        if (l == 0)
+            return new long[0];
         int id = pid;
         int m = n - t;
         int k = l;
 
-        connections.setNrOfElementsToSend((int) Math.ceil((double)l / (n-t)));
-
-        BigInteger[] random = new BigInteger[l];
-        do {
-            if (m < k) {
-                int finalId = id;
-                executor.submit(() -> {
-                    random1(finalId);
-                });
-                id++;
-                k = k - m;
-            } else {
-                int finalId1 = id;
-                executor.submit(() -> {
-                    random1(finalId1);
-                });
-                k = 0;
-            }
-        } while (k != 0);
+        long[] random = new long[l];
+        // The batches of m are shared with the pids pid, pid+1, ...
+        random1((l + m - 1) / m, pid);
 
         k=l;
         Future[] futures = new Future[l/m+1];
@@ -269,8 +180,8 @@ public class DamgaardNielsen implements MPCProtocol {
             if (f == null)
                 break;
             try {
-                BigInteger[] r = (BigInteger[]) f.get();
-                for (BigInteger ri : r) {
+                long[] r = (long[]) f.get();
+                for (long ri : r) {
                     random[i] = ri;
                     i++;
                 }
@@ -282,33 +193,34 @@ public class DamgaardNielsen implements MPCProtocol {
     }
 
     // OPEN--
-    private BigInteger Open(int degree, BigInteger share, int pid) {
+    private long Open(int degree, long share, int pid) {
         // int king = pid/2 % n;
         connections.sendToPi(0, share, pid);
         if (partyNr == 0) {
-            BigInteger[] x_shares = connections.receive(pid);
-            BigInteger x_king = ss.interpolation(degree, x_shares);
+            long[] x_shares = connections.receive(pid);
+            long x_king = ss.interpolation(degree, x_shares);
             connections.sendElementToAll(x_king, pid+1);
         }
-        BigInteger x = connections.receiveFromPi(0, pid+1);
+        long x = connections.receiveFromPi(0, pid+1);
         return x;
     }
 
-    // We do the open in three steps so it can be done using a fixed number of threads less than the number of elements
-    // to be opened for much improved performance.
-    private void Open1(BigInteger share, int pid) {
-        connections.sendToPi(0, share, pid);
+    // We do the open in three steps: the shares are sent to the kings in one batch, the kings interpolate as
+    // continuations on the received shares and add the results to another batch, and the results are received as
+    // futures, so no thread waits for the elements of a single open.
+    private void Open1(RoundBatch batch, long share, int pid) {
+        batch.addToPi(0, share, pid);
     }
-    private void Open2(int degree, int pid) {
-        if (partyNr == 0) {
-            BigInteger[] x_shares = connections.receive(pid);
-            BigInteger x_king = ss.interpolation(degree, x_shares);
-            connections.sendElementToAll(x_king, pid+1);
-        }
+    private CompletableFuture<Void> Open2(RoundBatch batch, int degree, int pid) {
+        if (partyNr != 0)
+            return null;
+        return connections.receiveAsync(pid).thenAcceptAsync(x_shares -> {
+            long x_king = ss.interpolation(degree, x_shares);
+            batch.addToAll(x_king, pid+1);
+        }, executor);
     }
-    private BigInteger Open3(int pid) {
-        BigInteger x = connections.receiveFromPi(0, pid+1);
-        return x;
+    private CompletableFuture<Long> Open3(int pid) {
+        return connections.receiveFromPiAsync(0, pid+1);
     }
 
 
@@ -317,37 +229,37 @@ public class DamgaardNielsen implements MPCProtocol {
 
     private ExecutorService executor = Executors.newFixedThreadPool(8);
     private Triples[] triples(int l, int pid) {
-        BigInteger[] a = random(l, pid);
+        if (l == 0)
+            return new Triples[0];
+        long[] a = random(l, pid);
         int randomElementsSend = (int) Math.ceil((double)l / (n-t));
         pid += randomElementsSend;
-        BigInteger[] b = random(l, pid);
+        long[] b = random(l, pid);
         pid += randomElementsSend;
-        BigInteger[][] rR = doubleRandom(l, pid);
+        long[][] rR = doubleRandom(l, pid);
         pid += 2*randomElementsSend;
-        BigInteger[] r = rR[0];
-        BigInteger[] R = rR[1];
+        long[] r = rR[0];
+        long[] R = rR[1];
 
         // The  computation of triples has to be done in parallel for each triple
         // and create a seperate thread-able class for this.
 
-        connections.setNrOfElementsToSend(l);
 
-        BigInteger[] d_shares = new BigInteger[l];
+        long[] d_shares = new long[l];
         for (int i = 0; i<l; i++) {
-            d_shares[i] = (a[i].multiply(b[i])).add(R[i]).mod(F);
+            d_shares[i] = field.add(field.multiply(a[i], b[i]), R[i]);
         }
 
-        BigInteger[] Ds = openParallel(2*t, d_shares, pid);
+        long[] Ds = openParallel(2*t, d_shares, pid);
         pid = pid + 2*l;
 
-        BigInteger[] c = new BigInteger[l];
+        long[] c = new long[l];
         for (int i = 0; i<l; i++) {
-            c[i] = Ds[i].subtract(r[i]).mod(F);
+            c[i] = field.subtract(Ds[i], r[i]);
         }
 
         long t2 = System.currentTimeMillis();
 
-        connections.resetNrElementsToSend();
         // for (int i = 0; i<l; i++) c[i] = ((computeC) threads[i]).getC_share();
         Triples[] trips = new Triples[l];
         for (int i = 0; i<l; i++) {
@@ -358,65 +270,51 @@ public class DamgaardNielsen implements MPCProtocol {
         }
         return trips;
     }
-    private BigInteger[] input_randomness;
+    private long[] input_randomness;
     private  Triples[] multTriples;
+    // The t-sharings and 2t-sharings of the double sharings of the DOT gates.
+    private long[][] dotRandoms;
+    private int dot_count = 0;
 
 
-    private void preprocess(Gate[] circuit) {
+    private void preprocess(CompiledCircuit circuit) {
         // Generate randomness for inputs
         input_randomness = random(numberOfInputs, globalPid);
         globalPid += (int) Math.ceil((double) numberOfInputs / (n-t));
 
-        connections.setNrOfElementsToSend(numberOfInputs);
-        Future[] futures = new Future[numberOfInputs];
+        // The shares of the input randomness are sent to the parties providing the inputs in one batch.
+        RoundBatch batch = connections.openBatch();
         int pid = globalPid;
         for (int i=0; i<numberOfInputs; i++) {
-            int label = circuit[i].getLabel();
-            int finalI = i;
-            int finalPid1 = pid;
-            futures[i] = executor.submit(() -> {
-                connections.sendToPi(label, input_randomness[finalI], finalPid1);
-            });
+            batch.addToPi(circuit.constant[i], input_randomness[i], pid);
             pid++;
         }
+        batch.close();
 
-        // check if all tasks are done!
-        for (Future f : futures) {
-            try {
-                f.get();
-            } catch (InterruptedException | ExecutionException e) {
-                e.printStackTrace();
-            }
-        }
+        // The shares of the randomness of our inputs are interpolated as they arrive.
         pid = globalPid;
+        CompletableFuture<?>[] received = new CompletableFuture<?>[numberOfInputs];
         for (int i=0; i<numberOfInputs; i++) {
-            int label = circuit[i].getLabel();
+            int label = circuit.constant[i];
             int finalI = i;
-            int finalPid = pid;
-            futures[i] = executor.submit(() -> {
-                if(partyNr == label) {
-                    BigInteger[] r_shares = connections.receive(finalPid);
-                    r[finalI] = ss.interpolation(t, r_shares);
-                }
-            });
+            received[i] = partyNr != label ? CompletableFuture.completedFuture(null) :
+                    connections.receiveAsync(pid).thenAccept(r_shares -> r[finalI] = ss.interpolation(t, r_shares));
             pid++;
         }
         globalPid = pid;
-
-        for (Future f : futures) {
-            try {
-                f.get();
-            } catch (InterruptedException | ExecutionException e) {
-                e.printStackTrace();
-            }
-        }
+        CompletableFuture.allOf(received).join();
 
 
-        connections.resetNrElementsToSend();
 
         // Generate triples for Mults
         multTriples = triples(numberOfMults, globalPid);
         globalPid += 2*numberOfMults + 4*(int) Math.ceil((double)numberOfMults / (n-t));
+
+        // A double sharing for every DOT gate
+        if (numberOfDots > 0) {
+            dotRandoms = doubleRandom(numberOfDots, globalPid);
+            globalPid += 2*(int) Math.ceil((double)numberOfDots / (n-t));
+        }
         System.out.println(partyNr + " preprocess shares " + connections.nrOfSharesSend);
 
 /*
@@ -424,41 +322,25 @@ public class DamgaardNielsen implements MPCProtocol {
         System.out.println(partyNr + " nReceived " + connections.nReceived);
 */
     }
-    // Sames as CEPS_old
-    public BigInteger add(Gate g) {
-        Gate[] inputs = g.getIn();
-
-        return ((inputs[0].getValue()).add(inputs[1].getValue())).mod(F);
-    }
-    // Same as CEPS_old
-    private BigInteger multByConst(Gate g) {
-        BigInteger input = (g.getIn()[0]).getValue();
-        BigInteger constLabel = new BigInteger(Integer.toString(g.getLabel()));
-
-        return (input.multiply(constLabel)).mod(F);
-    }
     // Count of how many mult gates we have gone through
     private int mult_count = 0;
 
     // mult--
-    public BigInteger mult(Gate g, int pid) {
-        Gate[] ins = g.getIn();
-        BigInteger x1 = ins[0].getValue();
-        BigInteger x2 = ins[1].getValue();
+    public long mult(long x1, long x2, int pid) {
         Triples trip = multTriples[mult_count];
-        BigInteger a = trip.getA();
-        BigInteger b = trip.getB();
-        BigInteger c = trip.getC();
+        long a = trip.getA();
+        long b = trip.getB();
+        long c = trip.getC();
 
-        BigInteger alpha_share = x1.add(a);
-        BigInteger beta_share = x2.add(b);
+        long alpha_share = field.add(x1, a);
+        long beta_share = field.add(x2, b);
 
         class openab extends Thread {
-            private BigInteger share;
+            private long share;
             private int pid;
-            private BigInteger open_shares;
+            private long open_shares;
 
-            private openab(BigInteger share, int pid) {
+            private openab(long share, int pid) {
                 this.share = share;
                 this.pid = pid;
             }
@@ -484,54 +366,45 @@ public class DamgaardNielsen implements MPCProtocol {
             e.printStackTrace();
         }
 
-        BigInteger alpha = get_alpha.open_shares;
-        BigInteger beta = get_beta.open_shares;
+        long alpha = get_alpha.open_shares;
+        long beta = get_beta.open_shares;
 
         mult_count++;
         //  α β − α [b] − β [a] + [c].
-        return ((((alpha.multiply(beta)).subtract( alpha.multiply(b) )).subtract(beta.multiply(a))).add(c)).mod(F);
+        return field.add(field.subtract(field.subtract(field.multiply(alpha, beta), field.multiply(alpha, b)), field.multiply(beta, a)), c);
     }
 
-    private BigInteger evalInput(Gate g, int gateNr, int pid) {
-        int label = g.getLabel();
+    private long evalInput(int label, int gateNr, int pid) {
         if (label == partyNr) {
             // delta_i = x + r
-            BigInteger delta = null;
+            long delta = 0;
             try {
-                delta = (x[numberOfMyInputsEvaluated].add(r[gateNr])).mod(F);
+                delta = field.add(x[numberOfMyInputsEvaluated], r[gateNr]);
             } catch (Exception e) {
                 System.out.println(9);
             }
             numberOfMyInputsEvaluated++;
             connections.sendElementToAll(delta, pid);
         }
-        BigInteger delta = connections.receiveFromPi(label, pid);
+        long delta = connections.receiveFromPi(label, pid);
         // share = delta_i - [r_i]
-        return (delta.subtract(input_randomness[gateNr])).mod(F);
+        return field.subtract(delta, input_randomness[gateNr]);
     }
-    private void evalInput1(Gate g, int gateNr, int pid) {
-        int label = g.getLabel();
+    private void evalInput1(RoundBatch batch, int label, int myInput, int gateNr, int pid) {
         if (label == partyNr) {
             // delta_i = x + r
-            BigInteger delta = null;
+            long delta = 0;
             try {
-                delta = (x[numberOfMyInputsEvaluated].add(r[gateNr])).mod(F);
+                delta = field.add(x[myInput], r[gateNr]);
             } catch (Exception e) {
                 System.out.println(9);
             }
-            numberOfMyInputsEvaluated++;
-            connections.sendElementToAll(delta, pid);
+            batch.addToAll(delta, pid);
         }
     }
-    private BigInteger evalInput2(Gate g, int gateNr, int pid) {
-        int label = g.getLabel();
-        BigInteger delta = connections.receiveFromPi(label, pid);
-        // share = delta_i - [r_i]
-        return (delta.subtract(input_randomness[gateNr])).mod(F);
-    }
 
-    public void output(Gate g, int pid, int number) {
-        BigInteger out = Open(t,(g.getIn()[0]).getValue(), pid);
+    public void output(long share, int pid, int number) {
+        long out = Open(t, share, pid);
 /*
         lock.lock();
         System.out.println("Result " + number + " at " + partyNr + " :: " + out);
@@ -541,164 +414,122 @@ public class DamgaardNielsen implements MPCProtocol {
 
     // When several sharings are opened in a round, they are opened
     //in parallel, using one execution of Open
-    private void eval(Gate[] circuit) {
+    private void eval(CompiledCircuit circuit) {
 
         /*
-           Iterate over all gates in the circuit.
-           We assume that the gates of the circuit are in computational order.
-           We evaluate the gates in parallel when they are ready, i.e. their input gates has been evaluated.
+           Iterate over the levels of the circuit.
+           The add and 'multiply by constant' gates of a level are computed locally, and then the multiplication
+           and output gates of the level are evaluated in parallel.
         */
         // Evaluating inputs
 
-        Future[] futures = new Future[numberOfInputs];
-        if (numberOfMyinputs > 0)
-            connections.setNrOfElementsToSend(numberOfMyinputs);
         int pid = globalPid;
+        // The deltas of our inputs are sent in one batch.
+        RoundBatch batch = connections.openBatch();
         for (int i = 0; i<numberOfInputs; i++) {
-            int finalI = i;
-            int finalPid = pid;
-            futures[i] = executor.submit(() -> {
-                Gate g = circuit[finalI];
-                evalInput1(g, finalI, finalPid);
-
-            });
+            int label = circuit.constant[i];
+            int myInput = label == partyNr ? numberOfMyInputsEvaluated++ : -1;
+            evalInput1(batch, label, myInput, i, pid);
             pid = pid + 4;
         }
-        for (int i = 0; i<numberOfInputs; i++) {
-            try {
-                futures[i].get();
-            } catch (InterruptedException | ExecutionException e) {
-                e.printStackTrace();
-            }
-        }
+        batch.close();
 
+        // share = delta_i - [r_i], as the deltas arrive.
         pid = globalPid;
+        ArrayList<CompletableFuture<Long>> inputs = new ArrayList<>(numberOfInputs);
         for (int i = 0; i<numberOfInputs; i++) {
-            int finalI = i;
-            int finalPid = pid;
-            futures[i] = executor.submit(() -> {
-                Gate g = circuit[finalI];
-                BigInteger res = evalInput2(g, finalI, finalPid);
-                g.setValue(res);
-                g.setComputed();
-            });
+            long r_i = input_randomness[i];
+            inputs.add(connections.receiveFromPiAsync(circuit.constant[i], pid).thenApply(d -> field.subtract(d, r_i)));
             pid = pid + 4;
         }
         for (int i = 0; i<numberOfInputs; i++) {
-            try {
-                futures[i].get();
-            } catch (InterruptedException | ExecutionException e) {
-                e.printStackTrace();
-            }
+            circuit.value[i] = inputs.get(i).join();
         }
         globalPid = pid;
 
         // Evaluating the other gates
-        int currentLvl = 1;
-        for (int i = numberOfInputs; i<circuit.length;) {
-            int countMults = 0;
-            int countOuts = 0;
-            int j = i;
-            // waiting for all gates in the current lvl to get ready
-            while(circuit[i].getLevel() == currentLvl) {
-                while (gateNotReady(circuit[i])) {
-                    try {
-                        synchronized (this) {
-                            wait();
-                        }
-                    } catch (InterruptedException e) {
-                        e.printStackTrace();
-                    }
-                }
-                if (circuit[i].getType() == Type.MULT)
-                    countMults++;
-                if (circuit[i].getType() == Type.OUTPUT)
-                    countOuts++;
-                i++;
-                if (i == circuit.length)
-                    break;
-            }
-            if (countMults != 0 || countOuts != 0)
-                connections.setNrOfElementsToSend(2*countMults + countOuts);
-
-            // Start to compute all the gates which are ready.
-            Gate[] mults = new Gate[countMults];
-            Gate[] outs = new Gate[countOuts];
-            int multCounter = 0;
-            int outCounter = 0;
-            for (int k=j; k<i; k++) {
-                Gate g = circuit[k];
-                Type type = g.getType();
-                switch(type) {
-                    case ADD:
-                        g.setValue(add(g));
-                        g.setComputed();
-                        break;
-                    case CONST:
-                        g.setValue(multByConst(g));
-                        g.setComputed();
+        int[] opcode = circuit.opcode;
+        int[] in0 = circuit.in0;
+        int[] in1 = circuit.in1;
+        long[] value = circuit.value;
+        // Shares of the constant 1, for the constant terms of the LINEAR gates.
+        long one = field.fromLong(1);
+        for (int lvl = 1; lvl < circuit.numberOfLevels; lvl++) {
+            int multFrom = circuit.multStart[lvl];
+            int countMults = circuit.multStart[lvl+1] - multFrom;
+            int outFrom = circuit.outputStart[lvl];
+            int countOuts = circuit.outputStart[lvl+1] - outFrom;
+            int dotFrom = circuit.dotStart[lvl];
+            int countDots = circuit.dotStart[lvl+1] - dotFrom;
+
+            // Start to compute all the add and 'multiply by constant' gates.
+            for (int k = circuit.levelStart[lvl]; k < circuit.levelStart[lvl+1]; k++) {
+                switch(opcode[k]) {
+                    case CompiledCircuit.ADD:
+                        value[k] = field.add(value[in0[k]], value[in1[k]]);
                         break;
-                    case MULT:
-                        mults[multCounter] = g;
-                        multCounter++;
+                    case CompiledCircuit.CONST:
+                        value[k] = field.multiply(value[in0[k]], field.fromLong(circuit.constant[k]));
                         break;
-
-                    case OUTPUT:
-                        outs[outCounter] = g;
-                        outCounter++;
-
+                    case CompiledCircuit.LINEAR:
+                        value[k] = circuit.linear(field, value, k, one);
                         break;
-
-                    case INPUT:
+                    case CompiledCircuit.INPUT:
                         System.out.println("EROOR");
                         break;
                 }
             }
-            currentLvl++;
 
             // If there is no mult gates we are done, else we have to compute their value.
-            if(countMults == 0 && outCounter == 0)
+            if(countMults == 0 && countDots == 0 && countOuts == 0)
                 continue;
 
-            if (outCounter > 0) {
-                BigInteger[] outGateValues = new BigInteger[outCounter];
-                for (int k = 0; k < outCounter; k++) {
-                    outGateValues[k] = (outs[k].getIn()[0]).getValue();
+            if (countOuts > 0) {
+                long[] outGateValues = new long[countOuts];
+                for (int k = 0; k < countOuts; k++) {
+                    outGateValues[k] = value[in0[circuit.outputs[outFrom + k]]];
                 }
-                BigInteger[] res = openParallel(t, outGateValues, globalPid);
+                long[] res = openParallel(t, outGateValues, globalPid);
                 break;
             }
-            BigInteger[] alphasAndBetas = new BigInteger[2*countMults];
-            BigInteger[] as = new BigInteger[countMults];
-            BigInteger[] bs = new BigInteger[countMults];
-            BigInteger[] cs = new BigInteger[countMults];
-
-            for (int i1 = 0, multsLength = mults.length; i1 < multsLength; i1++) {
-                Gate g = mults[i1];
-                Gate[] ins = g.getIn();
-                BigInteger x1 = ins[0].getValue();
-                BigInteger x2 = ins[1].getValue();
+            long[] alphasAndBetas = new long[2*countMults + countDots];
+            long[] as = new long[countMults];
+            long[] bs = new long[countMults];
+            long[] cs = new long[countMults];
+
+            for (int i1 = 0; i1 < countMults; i1++) {
+                int g = circuit.mults[multFrom + i1];
+                long x1 = value[in0[g]];
+                long x2 = value[in1[g]];
                 Triples trip = multTriples[mult_count];
                 mult_count++;
-                BigInteger a = trip.getA();
+                long a = trip.getA();
                 as[i1] = a;
-                BigInteger b = trip.getB();
+                long b = trip.getB();
                 bs[i1] = b;
                 cs[i1] = trip.getC();
-                alphasAndBetas[i1] = x1.add(a);
-                alphasAndBetas[i1 + countMults] = x2.add(b);
+                alphasAndBetas[i1] = field.add(x1, a);
+                alphasAndBetas[i1 + countMults] = field.add(x2, b);
             }
 
-            BigInteger[] opens = openParallel(t, alphasAndBetas, globalPid);
-            globalPid = globalPid + countMults * 4;
+            // The inner products of the DOT gates are masked with the 2t-sharings of double sharings and opened with
+            // degree 2t along with the alphas and betas, so a DOT gate takes one open whatever its length.
+            for (int k = 0; k < countDots; k++) {
+                long h = circuit.dot(field, value, value, circuit.dots[dotFrom + k]);
+                alphasAndBetas[2*countMults + k] = field.add(h, dotRandoms[1][dot_count + k]);
+            }
+            long[] opens = openParallel(t, alphasAndBetas, 2*countMults, globalPid);
+            globalPid = globalPid + countMults * 4 + countDots * 2;
 
             for (int k = 0; k < countMults; k++) {
-                Gate g = mults[k];
-                BigInteger alpha = opens[k];
-                BigInteger beta = opens[k + countMults];
-                g.setValue(((((alpha.multiply(beta)).subtract( alpha.multiply(bs[k]) )).subtract(beta.multiply(as[k]))).add(cs[k])).mod(F));
-                g.setComputed();
+                long alpha = opens[k];
+                long beta = opens[k + countMults];
+                value[circuit.mults[multFrom + k]] = field.add(field.subtract(field.subtract(field.multiply(alpha, beta), field.multiply(alpha, bs[k])), field.multiply(beta, as[k])), cs[k]);
             }
+            for (int k = 0; k < countDots; k++) {
+                value[circuit.dots[dotFrom + k]] = field.subtract(opens[2*countMults + k], dotRandoms[0][dot_count + k]);
+            }
+            dot_count += countDots;
 /*
             if((connections.nrOfSharesSend - sharesBefore) != 0)
                 System.out.println(partyNr + " shares eval " + (connections.nrOfSharesSend - sharesBefore));
@@ -708,44 +539,25 @@ public class DamgaardNielsen implements MPCProtocol {
         // We are done, so shutting down the executor
 
         // Resetting fields if the protocol is to be runProtocol again!
-        connections.resetNrElementsToSend();
         executor.shutdown();
         executor.isTerminated();
         executor = Executors.newFixedThreadPool(8);
         numberOfMyInputsEvaluated = 0;
         mult_count = 0;
         input_randomness = null;
-        r = new BigInteger[numberOfInputs];
+        r = new long[numberOfInputs];
         multTriples = null;
-    }
-
-    private boolean gateNotReady(Gate g) {
-        Type t = g.getType();
-        Gate[] ins = g.getIn();
-        if(t.equals(Type.INPUT)) {
-            return false;
-        }
-        // ADD and mult are the only gates with two inputs.
-        else if (t.equals(Type.ADD) ||  t.equals(Type.MULT)) {
-            // Return true if both the inptus are set -- otherwise return false
-            return (!ins[0].getComputed() || !ins[1].getComputed());
-        }
-        // Lastly we consider Output, Const
-        else if (t.equals(Type.CONST) || t.equals(Type.OUTPUT)) {
-            return !ins[0].getComputed();
-        }
-        else {
-            System.out.println("Something is wrong is gate ready!!!!");
-            return true;
-        }
+        dotRandoms = null;
+        dot_count = 0;
     }
 
     @Override
-    public long[] runProtocol(Gate[] circuit) {
+    public long[] runProtocol(CompiledCircuit circuit) {
         System.out.println("Running Damgård-Nielsen");
+        circuit.prepare(field);
         calcNumberOfInputs(circuit);
         calcNumberOfMults(circuit);
-        r = new BigInteger[numberOfInputs]; // The randomness for my input.
+        r = new long[numberOfInputs]; // The randomness for my input.
 
         long startTime;
         long endTime;
@@ -754,6 +566,7 @@ public class DamgaardNielsen implements MPCProtocol {
         // Preprocess
         System.out.println("Preprocess");
         startTime = System.nanoTime();
+        connections.phase("preprocess");
         /////////////////////////////////////////////////////////////////
         preprocess(circuit);
         /////////////////////////////////////////////////////////////////
@@ -762,20 +575,22 @@ public class DamgaardNielsen implements MPCProtocol {
         long duration_preprocess = (endTime - startTime)/1000000;
         /*runtimes[0] = duration_preprocess;
         runtimes[1] = connections.nrOfSharesSend;*/
-        connections.nrOfSharesSend = 0;
+        int preprocessShares = connections.nrOfSharesSend;
 
         System.out.println("Duration Preprocess: " + duration_preprocess + " ms");
 
         System.out.println("Eval");
         startTime = System.nanoTime();
+        connections.phase("eval");
         /////////////////////////////////////////////////////////////////
         eval(circuit);
         /////////////////////////////////////////////////////////////////
         endTime = System.nanoTime();
+        connections.phase(null);
 
         long duration_eval = (endTime - startTime)/1000000;
 
-        runtimes[0] = connections.nrOfSharesSend;
+        runtimes[0] = connections.nrOfSharesSend - preprocessShares;
         runtimes[1] = connections.messagesSend;
 
         connections.time = 0;
@@ -787,8 +602,10 @@ public class DamgaardNielsen implements MPCProtocol {
         runtimes[2] = duration_protocol;
         System.out.println("\nDuration protocol: " + duration_protocol + " ms");
 
-        System.out.println(partyNr + " Shares send " + connections.nrOfSharesSend);
+        System.out.println(partyNr + " Shares send " + runtimes[0]);
         System.out.println(partyNr + " Messages send " + connections.messagesSend);
+        System.out.println(partyNr + " round latency " + connections.roundLatency);
+        connections.roundLatency.reset();
 
         connections.nrOfSharesSend = 0;
         connections.timeSending = 0;
@@ -813,6 +630,11 @@ public class DamgaardNielsen implements MPCProtocol {
         long duration_setup = (endTime - startTime)/1000000;
     }
 
+    @Override
+    public List<PhaseStats> takePhases() {
+        return connections.takePhases();
+    }
+
     @Override
     public void stop() {
         // Stopping the attempts to receive!
@@ -824,33 +646,35 @@ public class DamgaardNielsen implements MPCProtocol {
     /*
         private ExecutorService executor = Executors.newFixedThreadPool(8);
     */
-    private BigInteger[] openParallel(int degree, BigInteger[] elements, int pid) {
-        int thisPid = pid;
-        for (BigInteger element : elements) {
-            int finalPid = thisPid;
-            executor.submit(() -> Open1(element, finalPid));
-            thisPid+=2;
-        }
-        thisPid = pid;
-        for (int i = 0, elementsLength = elements.length; i < elementsLength; i++) {
-            int finalPid = thisPid;
-            executor.submit(() -> Open2(degree, finalPid));
-            thisPid += 2;
-        }
-        thisPid = pid;
-        Future[] futures = new Future[elements.length];
+    private long[] openParallel(int degree, long[] elements, int pid) {
+        return openParallel(degree, elements, elements.length, pid);
+    }
+
+    // The elements from index reduceFrom on are opened with degree 2t.
+    private long[] openParallel(int degree, long[] elements, int reduceFrom, int pid) {
+        // The results of the opens this party is king of are sent in one batch when they are all done.
+        RoundBatch results = connections.openBatch();
+        ArrayList<CompletableFuture<Void>> kings = new ArrayList<>();
+        for (int i = 0; i < elements.length; i++) {
+            CompletableFuture<Void> king = Open2(results, i < reduceFrom ? degree : 2*t, pid + 2*i);
+            if (king != null)
+                kings.add(king);
+        }
+
+        RoundBatch shares = connections.openBatch();
+        for (int i = 0; i < elements.length; i++) {
+            Open1(shares, elements[i], pid + 2*i);
+        }
+        shares.close();
+        CompletableFuture.allOf(kings.toArray(new CompletableFuture<?>[0])).join();
+        results.close();
+        ArrayList<CompletableFuture<Long>> futures = new ArrayList<>(elements.length);
         for (int i = 0; i<elements.length; i++) {
-            int finalPid1 = thisPid;
-            futures[i] = executor.submit(() -> Open3(finalPid1));
-            thisPid+=2;
+            futures.add(Open3(pid + 2*i));
         }
-        BigInteger[] res = new BigInteger[elements.length];
+        long[] res = new long[elements.length];
         for (int i = 0; i<elements.length; i++) {
-            try {
-                res[i] = (BigInteger) futures[i].get();
-            } catch (InterruptedException | ExecutionException e) {
-                e.printStackTrace();
-            }
+            res[i] = futures.get(i).join();
         }
 
         return res;
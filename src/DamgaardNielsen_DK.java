@@ -1,19 +1,22 @@
 import java.math.BigInteger;
 import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.*;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
 public class DamgaardNielsen_DK implements MPCProtocol {
     private int partyNr;
-    private BigInteger F; // prime generating field F
-    private BigInteger[] x; // inputs of party
+    private Field field; // the field F the circuit is evaluated in
+    private long[] x; // inputs of party
     private int n; // number of parties in the protocol
     private int t; // Maximum number of corrupted parties
 
     public ConnectionHolder connections;
     private SecretSharing ss;
     private int numberOfMults = 0;
+    private int numberOfDots = 0;
     private int numberOfInputs = 0;
     private int numberOfMyinputs = 0;
     private int numberOfMyInputsEvaluated = 0;
@@ -22,7 +25,7 @@ public class DamgaardNielsen_DK implements MPCProtocol {
     private Lock lock = new ReentrantLock();
     private SecureRandom sc;
     // Randomness for input
-    private BigInteger[] r;
+    private long[] r;
 
     // Count of how many mult gates we have gone through
     private int mult_count = 0;
@@ -30,118 +33,65 @@ public class DamgaardNielsen_DK implements MPCProtocol {
 
     DamgaardNielsen_DK(int partyNr, BigInteger F, BigInteger[] x, int n, String[] hostnames, int[] ports) {
         this.partyNr = partyNr;
-        this.F = F;
-        this.x = x;
+        field = Field.of(F);
+        this.x = new long[x.length];
+        for (int i = 0; i < x.length; i++) {
+            this.x[i] = field.fromBigInteger(x[i]);
+        }
         this.n = n;
         t = (int) Math.ceil( n/2.0-1);
-        connections = new ConnectionHolder(n, partyNr, ports, hostnames);
-        ss = new SecretSharing(n, F);
+        connections = new ConnectionHolder(n, partyNr, ports, hostnames, field);
+        ss = new SecretSharing(n, field);
 
         sc = new SecureRandom();
         sc.nextBoolean();
     }
-    private void calcNumberOfMults(Gate[] circuit) {
-        int res = 0;
-        for (Gate g : circuit) {
-            if (g.getType().equals(Type.MULT)) res++;
-        }
-        numberOfMults = res;
+    private void calcNumberOfMults(CompiledCircuit circuit) {
+        numberOfMults = circuit.getNumberOfMults();
+        numberOfDots = circuit.getNumberOfDots();
     }
-    private void calcNumberOfInputs(Gate[] circuit) {
-        int i = 0;
-        int j = 0;
-        while (true) {
-            if(circuit[i].getLabel() == partyNr) j++;
-            if(circuit[i].getType().equals(Type.INPUT)) i++;
-            else break;
-        }
-        numberOfInputs = i;
-        numberOfMyinputs = j;
+    private void calcNumberOfInputs(CompiledCircuit circuit) {
+        numberOfInputs = circuit.numberOfInputs;
+        numberOfMyinputs = circuit.getNumberOfInputs(partyNr);
     }
 
 
     // For running multiple doubleRandoms in parallel.
-    private void doubleRandom1(int pid) {
-        int b = F.bitLength();
-        // Generate doubleRandom si
-        BigInteger si;
-        // Check if si was generated inside the field.
-        do {
-            si = new BigInteger(b, sc);
+    private void doubleRandom1(int batches, int pid) {
+        // Generate a doubleRandom si per batch and share them all at once
+        long[] si = ss.random(batches);
+        long[][] tSharings = ss.secretSharing(t, si);
+        long[][] two_tSharings = ss.secretSharing(2*t, si);
+
+        RoundBatch batch = connections.openBatch();
+        for (int b = 0; b < batches; b++) {
+            batch.addShares(tSharings[b], pid + 2*b);
+            batch.addShares(two_tSharings[b], pid + 2*b + 1);
         }
-        while (si.compareTo(F) > 0);
-        BigInteger[] tSharing = ss.secretSharing(t,si);
-        BigInteger[] two_tSharing = ss.secretSharing(2*t,si);
-
-
-        connections.sendShares(tSharing, pid);
-
-        pid++;
-
-        connections.sendShares(two_tSharing, pid);
+        batch.close();
     }
 
-    private BigInteger[][] doubleRandom2(int l, int pid) {
-        BigInteger[] tShares = connections.receive(pid);
+    private long[][] doubleRandom2(int l, int pid) {
+        long[] tShares = connections.receive(pid);
         pid++;
-        BigInteger[] two_tShares = connections.receive(pid);
-        // Randomness extraction matrix
-        BigInteger[] M = new BigInteger[n];
-        for (int i = 0; i<n; i++) {
-            M[i] = new BigInteger(Integer.toString(n)).mod(F);
-        }
-
-        // Randomness
-        BigInteger[][] res = new BigInteger[2][l];
-        BigInteger[] r = new BigInteger[l];
-        BigInteger[] R = new BigInteger[l];
-        for (int i = 0; i<l; i++) {
-            BigInteger[] alphas = new BigInteger[n];
+        long[] two_tShares = connections.receive(pid);
 
-            // We create an array consisting of (α1^i, α2^i, ..., αn^i)
-            BigInteger i_bi = new BigInteger(Integer.toString(i));
-            for (int k = 0; k < n; k++) {
-                alphas[k] = M[k].modPow(i_bi, F);
-            }
-
-            r[i] = BigInteger.ZERO;
-            R[i] = BigInteger.ZERO;
-            for (int j = 0; j<n; j++) {
-                // α1^i*r1 + ... + αn^i*rn
-                r[i] = (r[i].add(tShares[j].multiply(alphas[j]))).mod(F);
-                R[i] = (R[i].add(two_tShares[j].multiply(alphas[j]))).mod(F);
-            }
-        }
-        res[0] = r;
-        res[1] = R;
-        return res;
+        // Randomness extraction of l <= n-t double sharings with the same hyper-invertible matrix.
+        return new long[][]{ss.extract(tShares, l), ss.extract(two_tShares, l)};
     }
 
-    private BigInteger[][] doubleRandom(int l, int pid) {
+    private long[][] doubleRandom(int l, int pid) {
+        // No batch is shared for l = 0, so none may be received.
+        if (l == 0)
+            return new long[][]{new long[0], new long[0]};
         int id = pid;
         int m = n - t;
         int k = l;
-        BigInteger[] random = new BigInteger[l];
-        BigInteger[] double_random = new BigInteger[l];
+        long[] random = new long[l];
+        long[] double_random = new long[l];
 
-        connections.setNrOfElementsToSend(2*((int) Math.ceil((double)l / (n-t))));
-
-        do {
-            if (m < k) {
-                int finalId = id;
-                executor.submit(() -> {
-                    doubleRandom1(finalId);
-                });
-                id+=2;
-                k = k - m;
-            } else {
-                int finalId1 = id;
-                executor.submit(() -> {
-                    doubleRandom1(finalId1);
-                });
-                k = 0;
-            }
-        } while (k != 0);
+        // The batches of m are shared with the pids pid, pid+1, ..., two per batch.
+        doubleRandom1((l + m - 1) / m, pid);
 
         k=l;
         Future[] futures = new Future[l/m+1];
@@ -167,7 +117,7 @@ public class DamgaardNielsen_DK implements MPCProtocol {
             if (f == null)
                 break;
             try {
-                BigInteger[][] r = (BigInteger[][]) f.get();
+                long[][] r = (long[][]) f.get();
                 for (int q = 0; q < r[0].length; q++) {
                     random[i] = r[0][q];
                     double_random[i] = r[1][q];
@@ -177,77 +127,38 @@ public class DamgaardNielsen_DK implements MPCProtocol {
                 e.printStackTrace();
             }
         }
-        return new BigInteger[][]{random, double_random};
+        return new long[][]{random, double_random};
     }
 
     // For running multiple doubleRandoms in parallel.
-    private void random1(int pid) {
-        int b = F.bitLength();
-        // Generate doubleRandom si
-        BigInteger si;
-        // Check if si was generated inside the field.
-        do {
-            si = new BigInteger(b, sc);
-        }
-        while (si.compareTo(F) > 0);
-        BigInteger[] tSharing = ss.secretSharing(t,si);
+    private void random1(int batches, int pid) {
+        // Generate a random si per batch and share them all at once
+        long[][] tSharings = ss.secretSharing(t, ss.random(batches));
 
-        connections.sendShares(tSharing, pid);
-    }
-
-    private BigInteger[] random2(int l, int pid) {
-        BigInteger[] tShares = connections.receive(pid);
-
-        // Randomness extraction matrix
-        BigInteger[] M = new BigInteger[n];
-        for (int i = 0; i<n; i++) {
-            M[i] = new BigInteger(Integer.toString(n)).mod(F);
+        RoundBatch batch = connections.openBatch();
+        for (int b = 0; b < batches; b++) {
+            batch.addShares(tSharings[b], pid + b);
         }
+        batch.close();
+    }
 
-        // Randomness
-        BigInteger[] r = new BigInteger[l];
-        for (int i = 0; i<l; i++) {
-            BigInteger[] alphas = new BigInteger[n];
-
-            // We create an array consisting of (α1^i, α2^i, ..., αn^i)
-            BigInteger i_bi = new BigInteger(Integer.toString(i));
-            for (int k = 0; k < n; k++) {
-                alphas[k] = M[k].modPow(i_bi, F);
-            }
+    private long[] random2(int l, int pid) {
+        long[] tShares = connections.receive(pid);
 
-            r[i] = BigInteger.ZERO;
-            for (int j = 0; j<n; j++) {
-                // α1^i*r1 + ... + αn^i*rn
-                r[i] = (r[i].add(tShares[j].multiply(alphas[j]))).mod(F);
-            }
-        }
-        return r;
+        // Randomness extraction of l <= n-t sharings
+        return ss.extract(tShares, l);
     }
 
-    private BigInteger[] random(int l, int pid) {
+    private long[] random(int l, int pid) {
+        if (l == 0)
+            return new long[0];
         int id = pid;
         int m = n - t;
         int k = l;
 
-        connections.setNrOfElementsToSend((int) Math.ceil((double)l / (n-t)));
-
-        BigInteger[] random = new BigInteger[l];
-        do {
-            if (m < k) {
-                int finalId = id;
-                executor.submit(() -> {
-                    random1(finalId);
-                });
-                id++;
-                k = k - m;
-            } else {
-                int finalId1 = id;
-                executor.submit(() -> {
-                    random1(finalId1);
-                });
-                k = 0;
-            }
-        } while (k != 0);
+        long[] random = new long[l];
+        // The batches of m are shared with the pids pid, pid+1, ...
+        random1((l + m - 1) / m, pid);
 
         k=l;
         Future[] futures = new Future[l/m+1];
@@ -273,8 +184,8 @@ public class DamgaardNielsen_DK implements MPCProtocol {
             if (f == null)
                 break;
             try {
-                BigInteger[] r = (BigInteger[]) f.get();
-                for (BigInteger ri : r) {
+                long[] r = (long[]) f.get();
+                for (long ri : r) {
                     random[i] = ri;
                     i++;
                 }
@@ -286,23 +197,25 @@ public class DamgaardNielsen_DK implements MPCProtocol {
     }
 
 
-    // We do the open in three steps so it can be done using a fixed number of threads less than the number of elements
-    // to be opened for much improved performance.
-    private void Open1(BigInteger share, int pid, int i) {
+    // We do the open in three steps: the shares are sent to the kings in one batch, the kings interpolate as
+    // continuations on the received shares and add the results to another batch, and the results are received as
+    // futures, so no thread waits for the elements of a single open.
+    private void Open1(RoundBatch batch, long share, int pid, int i) {
         int king = i % n;
-        connections.sendToPi(king, share, pid);
+        batch.addToPi(king, share, pid);
     }
-    private void Open2(int degree, int pid, int i) {
+    private CompletableFuture<Void> Open2(RoundBatch batch, int degree, int pid, int i) {
         int king = i % n;
-        if (partyNr == king) {
-            BigInteger[] x_shares = connections.receive(pid);
-            BigInteger x_king = ss.interpolation(degree, x_shares);
-            connections.sendElementToAll(x_king, pid+1);
-        }
+        if (partyNr != king)
+            return null;
+        return connections.receiveAsync(pid).thenAcceptAsync(x_shares -> {
+            long x_king = ss.interpolation(degree, x_shares);
+            batch.addToAll(x_king, pid+1);
+        }, executor);
     }
-    private BigInteger Open3(int pid, int i) {
+    private CompletableFuture<Long> Open3(int pid, int i) {
         int king = i % n;
-        return connections.receiveFromPi(king, pid+1);
+        return connections.receiveFromPiAsync(king, pid+1);
     }
 
 
@@ -311,37 +224,35 @@ public class DamgaardNielsen_DK implements MPCProtocol {
 
     private ExecutorService executor = Executors.newFixedThreadPool(16);
     private Triples[] triples(int l, int pid) {
+        if (l == 0)
+            return new Triples[0];
         long t1 = System.currentTimeMillis();
         int randomElementsSend = (int) Math.ceil((double)l / (n-t));
-        BigInteger[] a = random(l, pid);
+        long[] a = random(l, pid);
         pid += randomElementsSend;
-        BigInteger[] b = random(l, pid);
+        long[] b = random(l, pid);
         pid += randomElementsSend;
-        BigInteger[][] rR = doubleRandom(l, pid);
+        long[][] rR = doubleRandom(l, pid);
         pid += 2*randomElementsSend;
-        BigInteger[] r = rR[0];
-        BigInteger[] R = rR[1];
+        long[] r = rR[0];
+        long[] R = rR[1];
         long t2 = System.currentTimeMillis();
 
         t1 = System.currentTimeMillis();
-        // connections.resetNrElementsToSend();
-        BigInteger[] d_shares = new BigInteger[l];
+        long[] d_shares = new long[l];
         for (int i = 0; i<l; i++) {
-                d_shares[i] = (a[i].multiply(b[i])).add(R[i]).mod(F);
+                d_shares[i] = field.add(field.multiply(a[i], b[i]), R[i]);
         }
-        connections.setNrElementsToSend_OPEN(l);
-        // connections.resetNrElementsToSend();
         t1 = System.currentTimeMillis();
-        BigInteger[] Ds = openParallel(2*t, d_shares, pid);
+        long[] Ds = openParallel(2*t, d_shares, pid);
         t2 = System.currentTimeMillis();
 
-        BigInteger[] c = new BigInteger[l];
+        long[] c = new long[l];
         for (int i = 0; i<l; i++) {
-            c[i] = Ds[i].subtract(r[i]).mod(F);
+            c[i] = field.subtract(Ds[i], r[i]);
         }
 
 
-        connections.resetNrElementsToSend();
         // for (int i = 0; i<l; i++) c[i] = ((computeC) threads[i]).getC_share();
         Triples[] trips = new Triples[l];
         for (int i = 0; i<l; i++) {
@@ -355,65 +266,51 @@ public class DamgaardNielsen_DK implements MPCProtocol {
         // System.out.println("total time trips " + (timeD + timerand));
         return trips;
     }
-    private BigInteger[] input_randomness;
+    private long[] input_randomness;
     private  Triples[] multTriples;
+    // The t-sharings and 2t-sharings of the double sharings of the DOT gates.
+    private long[][] dotRandoms;
+    private int dot_count = 0;
 
 
-    private void preprocess(Gate[] circuit) {
+    private void preprocess(CompiledCircuit circuit) {
         // Generate randomness for inputs
         input_randomness = random(numberOfInputs, globalPid);
         globalPid += (numberOfInputs/(n-t)+1);
 
-        connections.setNrOfElementsToSend(numberOfInputs);
-        Future[] futures = new Future[numberOfInputs];
+        // The shares of the input randomness are sent to the parties providing the inputs in one batch.
+        RoundBatch batch = connections.openBatch();
         int pid = globalPid;
         for (int i=0; i<numberOfInputs; i++) {
-            int label = circuit[i].getLabel();
-            int finalI = i;
-            int finalPid1 = pid;
-            futures[i] = executor.submit(() -> {
-                connections.sendToPi(label, input_randomness[finalI], finalPid1);
-            });
+            batch.addToPi(circuit.constant[i], input_randomness[i], pid);
             pid++;
         }
+        batch.close();
 
-        // check if all tasks are done!
-        for (Future f : futures) {
-            try {
-                f.get();
-            } catch (InterruptedException | ExecutionException e) {
-                e.printStackTrace();
-            }
-        }
+        // The shares of the randomness of our inputs are interpolated as they arrive.
         pid = globalPid;
+        CompletableFuture<?>[] received = new CompletableFuture<?>[numberOfInputs];
         for (int i=0; i<numberOfInputs; i++) {
-            int label = circuit[i].getLabel();
+            int label = circuit.constant[i];
             int finalI = i;
-            int finalPid = pid;
-            futures[i] = executor.submit(() -> {
-                if(partyNr == label) {
-                    BigInteger[] r_shares = connections.receive(finalPid);
-                    r[finalI] = ss.interpolation(t, r_shares);
-                }
-            });
+            received[i] = partyNr != label ? CompletableFuture.completedFuture(null) :
+                    connections.receiveAsync(pid).thenAccept(r_shares -> r[finalI] = ss.interpolation(t, r_shares));
             pid++;
         }
-
-        for (Future f : futures) {
-            try {
-                f.get();
-            } catch (InterruptedException | ExecutionException e) {
-                e.printStackTrace();
-            }
-        }
+        CompletableFuture.allOf(received).join();
 
 
-        connections.resetNrElementsToSend();
         globalPid = pid;
 
         // Generate triples for Mults
         multTriples = triples(numberOfMults, globalPid);
         globalPid += 2*numberOfMults + 4*(int) Math.ceil((double)numberOfMults / (n-t));
+
+        // A double sharing for every DOT gate
+        if (numberOfDots > 0) {
+            dotRandoms = doubleRandom(numberOfDots, globalPid);
+            globalPid += 2*(int) Math.ceil((double)numberOfDots / (n-t));
+        }
         System.out.println(partyNr + " preprocess bytes send " + connections.bytesSend);
         System.out.println(partyNr + " preprocess messages send " + connections.messagesSend);
 
@@ -422,82 +319,48 @@ public class DamgaardNielsen_DK implements MPCProtocol {
         System.out.println(partyNr + " nReceived " + connections.nReceived);
 */
     }
-    // Sames as CEPS_old
-    public BigInteger add(Gate g) {
-        Gate[] inputs = g.getIn();
-
-        return ((inputs[0].getValue()).add(inputs[1].getValue())).mod(F);
-    }
-    // Same as CEPS_old
-    private BigInteger multByConst(Gate g) {
-        BigInteger input = (g.getIn()[0]).getValue();
-        BigInteger constLabel = new BigInteger(Integer.toString(g.getLabel()));
-
-        return (input.multiply(constLabel)).mod(F);
-    }
-
-    private void evalInput1(Gate g, int gateNr, int pid) {
-        int label = g.getLabel();
+    private void evalInput1(RoundBatch batch, int label, int myInput, int gateNr, int pid) {
         if (label == partyNr) {
             // delta_i = x + r
-            BigInteger delta = (x[numberOfMyInputsEvaluated].add(r[gateNr])).mod(F);
+            long delta = field.add(x[myInput], r[gateNr]);
 
-            numberOfMyInputsEvaluated++;
-            connections.sendElementToAll(delta, pid);
+            batch.addToAll(delta, pid);
         }
     }
-    private BigInteger evalInput2(Gate g, int gateNr, int pid) {
-        int label = g.getLabel();
-        BigInteger delta = connections.receiveFromPi(label, pid);
-        // share = delta_i - [r_i]
-        return (delta.subtract(input_randomness[gateNr])).mod(F);
-    }
 
 
 
     // When several sharings are opened in a round, they are opened
     //in parallel, using one execution of Open
-    private void eval(Gate[] circuit) {
+    private void eval(CompiledCircuit circuit) {
         /*
-           Iterate over all gates in the circuit.
-           We assume that the gates of the circuit are in computational order.
-           We evaluate the gates in parallel when they are ready, i.e. their input gates has been evaluated.
+           Iterate over the levels of the circuit.
+           The add and 'multiply by constant' gates of a level are computed locally, and then the multiplication
+           and output gates of the level are evaluated in parallel.
         */
         // Evaluating inputs
         long t1 = System.currentTimeMillis();
-        Future[] futures = new Future[numberOfInputs];
-        if (numberOfMyinputs > 0)
-            connections.setNrOfElementsToSend(numberOfMyinputs);
         int pid = globalPid;
+        // The deltas of our inputs are sent in one batch.
+        RoundBatch batch = connections.openBatch();
         for (int i = 0; i<numberOfInputs; i++) {
-            int finalI = i;
-            int finalPid = pid;
-            futures[i] = executor.submit(() -> {
-                Gate g = circuit[finalI];
-                evalInput1(g, finalI, finalPid);
-
-            });
+            int label = circuit.constant[i];
+            int myInput = label == partyNr ? numberOfMyInputsEvaluated++ : -1;
+            evalInput1(batch, label, myInput, i, pid);
             pid = pid + 4;
         }
+        batch.close();
 
+        // share = delta_i - [r_i], as the deltas arrive.
         pid = globalPid;
+        ArrayList<CompletableFuture<Long>> inputs = new ArrayList<>(numberOfInputs);
         for (int i = 0; i<numberOfInputs; i++) {
-            int finalI = i;
-            int finalPid = pid;
-            futures[i] = executor.submit(() -> {
-                Gate g = circuit[finalI];
-                BigInteger res = evalInput2(g, finalI, finalPid);
-                g.setValue(res);
-                g.setComputed();
-            });
+            long r_i = input_randomness[i];
+            inputs.add(connections.receiveFromPiAsync(circuit.constant[i], pid).thenApply(d -> field.subtract(d, r_i)));
             pid = pid + 4;
         }
         for (int i = 0; i<numberOfInputs; i++) {
-            try {
-                futures[i].get();
-            } catch (InterruptedException | ExecutionException e) {
-                e.printStackTrace();
-            }
+            circuit.value[i] = inputs.get(i).join();
         }
         long t2 = System.currentTimeMillis();
         System.out.println("duration input " + (t2-t1));
@@ -505,160 +368,118 @@ public class DamgaardNielsen_DK implements MPCProtocol {
         globalPid = pid;
         int evalSharesBefore = connections.nrOfSharesSend;
         // Evaluating the other gates
-        int currentLvl = 1;
-        for (int i = numberOfInputs; i<circuit.length;) {
-            int countMults = 0;
-            int countOuts = 0;
-            int j = i;
-            // waiting for all gates in the current lvl to get ready
-            while(circuit[i].getLevel() == currentLvl) {
-                while (gateNotReady(circuit[i])) {
-                    try {
-                        synchronized (this) {
-                            wait();
-                        }
-                    } catch (InterruptedException e) {
-                        e.printStackTrace();
-                    }
-                }
-                if (circuit[i].getType() == Type.MULT)
-                    countMults++;
-                if (circuit[i].getType() == Type.OUTPUT)
-                    countOuts++;
-                i++;
-                if (i == circuit.length)
-                    break;
-            }
-
-            // Start to compute all the gates which are ready.
-            Gate[] mults = new Gate[countMults];
-            Gate[] outs = new Gate[countOuts];
-            int multCounter = 0;
-            int outCounter = 0;
-            for (int k=j; k<i; k++) {
-                Gate g = circuit[k];
-                Type type = g.getType();
-                switch(type) {
-                    case ADD:
-                        g.setValue(add(g));
-                        g.setComputed();
+        int[] opcode = circuit.opcode;
+        int[] in0 = circuit.in0;
+        int[] in1 = circuit.in1;
+        long[] value = circuit.value;
+        // Shares of the constant 1, for the constant terms of the LINEAR gates.
+        long one = field.fromLong(1);
+        for (int lvl = 1; lvl < circuit.numberOfLevels; lvl++) {
+            // Start to compute all the add and 'multiply by constant' gates.
+            for (int k = circuit.levelStart[lvl]; k < circuit.levelStart[lvl+1]; k++) {
+                switch(opcode[k]) {
+                    case CompiledCircuit.ADD:
+                        value[k] = field.add(value[in0[k]], value[in1[k]]);
                         break;
 
-                    case CONST:
-                        g.setValue(multByConst(g));
-                        g.setComputed();
+                    case CompiledCircuit.CONST:
+                        value[k] = field.multiply(value[in0[k]], field.fromLong(circuit.constant[k]));
                         break;
 
-                    case MULT:
-                        mults[multCounter] = g;
-                        multCounter++;
+                    case CompiledCircuit.LINEAR:
+                        value[k] = circuit.linear(field, value, k, one);
                         break;
 
-                    case OUTPUT:
-                        outs[outCounter] = g;
-                        outCounter++;
-
-                        break;
-
-                    case INPUT:
+                    case CompiledCircuit.INPUT:
                         System.out.println("EROOR");
                         break;
                 }
             }
-            currentLvl++;
+            int multFrom = circuit.multStart[lvl];
+            int countMults = circuit.multStart[lvl+1] - multFrom;
+            int outFrom = circuit.outputStart[lvl];
+            int countOuts = circuit.outputStart[lvl+1] - outFrom;
+            int dotFrom = circuit.dotStart[lvl];
+            int countDots = circuit.dotStart[lvl+1] - dotFrom;
 
             // If there is no mult gates we are done, else we have to compute their value.
-            if(countMults == 0 && outCounter == 0)
+            if(countMults == 0 && countDots == 0 && countOuts == 0)
                 continue;
 
-            if (countMults != 0 || countOuts != 0)
-                connections.setNrElementsToSend_OPEN(2*countMults + countOuts);
 
             // evaluating outs
-            if (outCounter > 0) {
+            if (countOuts > 0) {
                 System.out.println(partyNr + " before out messages " + connections.messagesSend);
-                BigInteger[] outGateValues = new BigInteger[outCounter];
-                for (int k = 0; k < outCounter; k++) {
-                    outGateValues[k] = (outs[k].getIn()[0]).getValue();
+                long[] outGateValues = new long[countOuts];
+                for (int k = 0; k < countOuts; k++) {
+                    outGateValues[k] = value[in0[circuit.outputs[outFrom + k]]];
                 }
 
-                BigInteger[] res = openParallel(t, outGateValues, globalPid);
+                long[] res = openParallel(t, outGateValues, globalPid);
                 System.out.println(partyNr + " after out messages send " + connections.messagesSend);
                 break;
             }
 
-            BigInteger[] alphasAndBetas = new BigInteger[2*countMults];
-            BigInteger[] as = new BigInteger[countMults];
-            BigInteger[] bs = new BigInteger[countMults];
-            BigInteger[] cs = new BigInteger[countMults];
+            long[] alphasAndBetas = new long[2*countMults + countDots];
+            long[] as = new long[countMults];
+            long[] bs = new long[countMults];
+            long[] cs = new long[countMults];
 
-            for (int i1 = 0, multsLength = mults.length; i1 < multsLength; i1++) {
-                Gate g = mults[i1];
-                Gate[] ins = g.getIn();
-                BigInteger x1 = ins[0].getValue();
-                BigInteger x2 = ins[1].getValue();
+            for (int i1 = 0; i1 < countMults; i1++) {
+                int g = circuit.mults[multFrom + i1];
+                long x1 = value[in0[g]];
+                long x2 = value[in1[g]];
                 Triples trip = multTriples[mult_count];
                 mult_count++;
-                BigInteger a = trip.getA();
+                long a = trip.getA();
                 as[i1] = a;
-                BigInteger b = trip.getB();
+                long b = trip.getB();
                 bs[i1] = b;
                 cs[i1] = trip.getC();
-                alphasAndBetas[i1] = x1.add(a);
-                alphasAndBetas[i1 + countMults] = x2.add(b);
+                alphasAndBetas[i1] = field.add(x1, a);
+                alphasAndBetas[i1 + countMults] = field.add(x2, b);
+            }
+            // The inner products of the DOT gates are masked with the 2t-sharings of double sharings and opened with
+            // degree 2t along with the alphas and betas, so a DOT gate takes one open whatever its length.
+            for (int k = 0; k < countDots; k++) {
+                long h = circuit.dot(field, value, value, circuit.dots[dotFrom + k]);
+                alphasAndBetas[2*countMults + k] = field.add(h, dotRandoms[1][dot_count + k]);
             }
-            BigInteger[] opens = openParallel(t, alphasAndBetas, globalPid);
-            globalPid = globalPid + countMults * 4;
+            long[] opens = openParallel(t, alphasAndBetas, 2*countMults, globalPid);
+            globalPid = globalPid + countMults * 4 + countDots * 2;
 
             for (int k = 0; k < countMults; k++) {
-                Gate g = mults[k];
-                BigInteger alpha = opens[k];
-                BigInteger beta = opens[k + countMults];
-                g.setValue(((((alpha.multiply(beta)).subtract( alpha.multiply(bs[k]) )).subtract(beta.multiply(as[k]))).add(cs[k])).mod(F));
-                g.setComputed();
+                long alpha = opens[k];
+                long beta = opens[k + countMults];
+                value[circuit.mults[multFrom + k]] = field.add(field.subtract(field.subtract(field.multiply(alpha, beta), field.multiply(alpha, bs[k])), field.multiply(beta, as[k])), cs[k]);
+            }
+            for (int k = 0; k < countDots; k++) {
+                value[circuit.dots[dotFrom + k]] = field.subtract(opens[2*countMults + k], dotRandoms[0][dot_count + k]);
             }
+            dot_count += countDots;
         }
 
         // Resetting fields if the protocol is to be runProtocol again!
-        connections.resetNrElementsToSend();
         executor.shutdown();
         executor.isTerminated();
         executor = Executors.newFixedThreadPool(8);
         numberOfMyInputsEvaluated = 0;
         mult_count = 0;
         input_randomness = null;
-        r = new BigInteger[numberOfInputs];
+        r = new long[numberOfInputs];
         multTriples = null;
-    }
-
-    private boolean gateNotReady(Gate g) {
-        Type t = g.getType();
-        Gate[] ins = g.getIn();
-        if(t.equals(Type.INPUT)) {
-            return false;
-        }
-        // ADD and mult are the only gates with two inputs.
-        else if (t.equals(Type.ADD) ||  t.equals(Type.MULT)) {
-            // Return true if both the inptus are set -- otherwise return false
-            return (!ins[0].getComputed() || !ins[1].getComputed());
-        }
-        // Lastly we consider Output, Const
-        else if (t.equals(Type.CONST) || t.equals(Type.OUTPUT)) {
-            return !ins[0].getComputed();
-        }
-        else {
-            System.out.println("Something is wrong is gate ready!!!!");
-            return true;
-        }
+        dotRandoms = null;
+        dot_count = 0;
     }
 
     @Override
-    public long[] runProtocol(Gate[] circuit) {
+    public long[] runProtocol(CompiledCircuit circuit) {
         System.out.println("Running Damgård-Nielsen (DK)");
+        circuit.prepare(field);
 
         calcNumberOfInputs(circuit);
         calcNumberOfMults(circuit);
-        r = new BigInteger[numberOfInputs]; // The randomness for my input.
+        r = new long[numberOfInputs]; // The randomness for my input.
 
         long startTime;
         long endTime;
@@ -667,6 +488,7 @@ public class DamgaardNielsen_DK implements MPCProtocol {
         // Preprocess
         System.out.println("Preprocess");
         startTime = System.nanoTime();
+        connections.phase("preprocess");
         /////////////////////////////////////////////////////////////////
         preprocess(circuit);
         /////////////////////////////////////////////////////////////////
@@ -681,10 +503,12 @@ public class DamgaardNielsen_DK implements MPCProtocol {
 
         System.out.println("Eval");
         startTime = System.nanoTime();
+        connections.phase("eval");
         /////////////////////////////////////////////////////////////////
         eval(circuit);
         /////////////////////////////////////////////////////////////////
         endTime = System.nanoTime();
+        connections.phase(null);
 
         long duration_eval = (endTime - startTime)/1000000;
         // runtimes[2] = duration_eval;
@@ -705,6 +529,8 @@ public class DamgaardNielsen_DK implements MPCProtocol {
         System.out.println(partyNr + " bytes send " + connections.bytesSend);
         System.out.println(partyNr + " shares send " + connections.nrOfSharesSend);
         System.out.println(partyNr + " messages send " + connections.messagesSend);
+        System.out.println(partyNr + " round latency " + connections.roundLatency);
+        connections.roundLatency.reset();
         connections.nrOfSharesSend = 0;
         connections.bytesSend = 0;
         connections.messagesSend = 0;
@@ -731,6 +557,11 @@ public class DamgaardNielsen_DK implements MPCProtocol {
         System.out.println("Duration setup: " + duration_setup + " ms");
     }
 
+    @Override
+    public List<PhaseStats> takePhases() {
+        return connections.takePhases();
+    }
+
     @Override
     // Stopping the attempts to receive!
     public void stop() {
@@ -740,37 +571,35 @@ public class DamgaardNielsen_DK implements MPCProtocol {
     }
 
     // This method allows us to do a number of opens in parallel.
-    private BigInteger[] openParallel(int degree, BigInteger[] elements, int pid) {
-        int thisPid = pid;
+    private long[] openParallel(int degree, long[] elements, int pid) {
+        return openParallel(degree, elements, elements.length, pid);
+    }
+
+    // The elements from index reduceFrom on are opened with degree 2t.
+    private long[] openParallel(int degree, long[] elements, int reduceFrom, int pid) {
+        // The results of the opens this party is king of are sent in one batch when they are all done.
+        RoundBatch results = connections.openBatch();
+        ArrayList<CompletableFuture<Void>> kings = new ArrayList<>();
         for (int i = 0; i < elements.length; i++) {
-            BigInteger element = elements[i];
-            int finalPid = thisPid;
-            int finalI = i;
-            executor.submit(() -> Open1(element, finalPid, finalI));
-            thisPid += 2;
+            CompletableFuture<Void> king = Open2(results, i < reduceFrom ? degree : 2*t, pid + 2*i, i);
+            if (king != null)
+                kings.add(king);
         }
-        thisPid = pid;
+
+        RoundBatch shares = connections.openBatch();
         for (int i = 0; i < elements.length; i++) {
-            int finalPid = thisPid;
-            int finalI = i;
-            executor.submit(() -> Open2(degree, finalPid, finalI));
-            thisPid += 2;
+            Open1(shares, elements[i], pid + 2*i, i);
         }
-        thisPid = pid;
-        Future[] futures = new Future[elements.length];
+        shares.close();
+        CompletableFuture.allOf(kings.toArray(new CompletableFuture<?>[0])).join();
+        results.close();
+        ArrayList<CompletableFuture<Long>> futures = new ArrayList<>(elements.length);
         for (int i = 0; i<elements.length; i++) {
-            int finalPid = thisPid;
-            int finalI = i;
-            futures[i] = executor.submit(() -> Open3(finalPid, finalI));
-            thisPid+=2;
+            futures.add(Open3(pid + 2*i, i));
         }
-        BigInteger[] res = new BigInteger[elements.length];
+        long[] res = new long[elements.length];
         for (int i = 0; i<elements.length; i++) {
-            try {
-                res[i] = (BigInteger) futures[i].get();
-            } catch (InterruptedException | ExecutionException e) {
-                e.printStackTrace();
-            }
+            res[i] = futures.get(i).join();
         }
 
         return res;
@@ -0,0 +1,66 @@
+import java.math.BigInteger;
+import java.security.SecureRandom;
+
+/*
+Arithmetic in the field F used by the protocols. The elements are represented as longs in [0, |F|) so the
+evaluation of the circuit does not have to allocate an object per operation, except for the primes of more than 62
+bits, see BigPrimeField.
+ */
+public interface Field {
+    long add(long a, long b);
+    long subtract(long a, long b);
+    long multiply(long a, long b);
+    long negate(long a);
+    long inverse(long a);
+
+    // Maps any long, e.g. the constant of a CONST gate, into the field as the integers map into every ring.
+    long fromLong(long a);
+
+    long fromBigInteger(BigInteger a);
+    BigInteger toBigInteger(long a);
+
+    // Uniformly random element of the field.
+    long random(SecureRandom sc);
+
+    // Uniformly random element of the field made from the random bits r, drawing from sc if r is rejected.
+    long random(long r, SecureRandom sc);
+
+    // Number of bits of the elements in the field.
+    int bitLength();
+
+    // The characteristic, i.e. the prime p with p*1 = 0, or 0 if p does not fit in a long.
+    long characteristic();
+
+    // Whether the longs are references to the elements rather than the elements, which then have to be sent as
+    // toBigInteger and received with fromBigInteger.
+    default boolean referencesElements() {
+        return false;
+    }
+
+    // The evaluation point of party i-1, distinct and nonzero for every i > 0. Not fromLong(i) in fields of
+    // characteristic 2, where that is 0 or 1.
+    default long point(int i) {
+        return fromLong(i);
+    }
+
+    default long pow(long a, long e) {
+        long res = fromLong(1);
+        while (e > 0) {
+            if ((e & 1) == 1) res = multiply(res, a);
+            a = multiply(a, a);
+            e >>>= 1;
+        }
+        return res;
+    }
+
+    // Picks the fastest implementation for the prime F, or GF(2^k) for F = 2^k.
+    static Field of(BigInteger F) {
+        if (F.equals(Mersenne61Field.P_BIG))
+            return new Mersenne61Field();
+        if (F.bitCount() == 1 && F.bitLength() > 2)
+            return new GF2kField(F.bitLength() - 1);
+        if (F.bitLength() > 62)
+            return BigPrimeField.of(F);
+        return new PrimeField(F);
+    }
+}
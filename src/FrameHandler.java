@@ -0,0 +1,5 @@
+// Called by the receiving thread of a connection for every frame received from party connectionNr. The frame is the
+// first length bytes of frame, which are only valid during the call, as the connection may reuse the array.
+interface FrameHandler {
+    void onFrame(int connectionNr, byte[] frame, int length);
+}
@@ -0,0 +1,125 @@
+import java.math.BigInteger;
+import java.security.SecureRandom;
+
+/*
+The field GF(2^k), the polynomials over GF(2) modulo an irreducible polynomial of degree k, where bit i of an element
+is the coefficient of x^i. Addition is XOR, so the XOR gates of the Bristol circuits are computed locally and only the
+AND gates need interaction. GF(2^8) multiplies by looking up a table of all products, the other fields by shifting and
+adding. k is at most 63 so no element is -1, which marks an empty slot in ConnectionHolder.
+The integers map into the subfield GF(2), so the constants of the circuits keep their meaning: -2 is 0 and -1 is 1.
+The inputs and outputs are elements, so fromBigInteger and toBigInteger use the bits, and so do the evaluation points.
+ */
+public class GF2kField implements Field {
+    // The degrees with an irreducible polynomial x^k + LOW[i] in the table.
+    private static final int[] DEGREES = {8, 16, 32, 40, 63};
+    private static final long[] LOW = {0x1B, 0x2B, 0x8D, 0x39, 0x3};
+
+    private final int k;
+    private final long mask;
+    // The irreducible polynomial without x^k.
+    private final long low;
+    // For GF(2^8), the product of a and b at index a << 8 | b.
+    private final byte[] products;
+
+    GF2kField(int k) {
+        int i = 0;
+        while (i < DEGREES.length && DEGREES[i] != k) i++;
+        if (i == DEGREES.length)
+            throw new IllegalArgumentException("GF(2^" + k + ") is not supported, k has to be 8, 16, 32, 40 or 63");
+        this.k = k;
+        mask = (1L << k) - 1;
+        low = LOW[i];
+        if (k == 8) {
+            products = new byte[1 << 16];
+            for (int a = 0; a < 256; a++) {
+                for (int b = 0; b < 256; b++) {
+                    products[a << 8 | b] = (byte) shiftAndAdd(a, b);
+                }
+            }
+        } else {
+            products = null;
+        }
+    }
+
+    @Override
+    public long add(long a, long b) {
+        return a ^ b;
+    }
+
+    @Override
+    public long subtract(long a, long b) {
+        return a ^ b;
+    }
+
+    @Override
+    public long multiply(long a, long b) {
+        if (products != null)
+            return products[(int) (a << 8 | b)] & 0xFF;
+        return shiftAndAdd(a, b);
+    }
+
+    // Adds up a*x^i for the bits i of b, reducing a*x^i modulo the polynomial as it is shifted.
+    private long shiftAndAdd(long a, long b) {
+        long res = 0;
+        while (b != 0) {
+            if ((b & 1) != 0) res ^= a;
+            b >>>= 1;
+            a <<= 1;
+            if ((a >>> k) != 0) a = (a & mask) ^ low;
+        }
+        return res;
+    }
+
+    @Override
+    public long negate(long a) {
+        return a;
+    }
+
+    // a^(2^k - 2), as the nonzero elements form a group of order 2^k - 1.
+    @Override
+    public long inverse(long a) {
+        return pow(a, mask - 1);
+    }
+
+    @Override
+    public long fromLong(long a) {
+        return a & 1;
+    }
+
+    @Override
+    public long fromBigInteger(BigInteger a) {
+        return a.longValue() & mask;
+    }
+
+    @Override
+    public BigInteger toBigInteger(long a) {
+        return BigInteger.valueOf(a);
+    }
+
+    @Override
+    public long random(SecureRandom sc) {
+        return sc.nextLong() & mask;
+    }
+
+    @Override
+    public long random(long r, SecureRandom sc) {
+        return r & mask;
+    }
+
+    @Override
+    public int bitLength() {
+        return k;
+    }
+
+    @Override
+    public long characteristic() {
+        return 2;
+    }
+
+    @Override
+    public long point(int i) {
+        if (i <= 0 || i > mask)
+            throw new IllegalArgumentException("GF(2^" + k + ") has no " + i + "th nonzero element");
+        return i;
+    }
+}
@@ -1,9 +1,7 @@
-import java.math.BigInteger;
-
 public class Gate implements Comparable<Gate>{
 
     Type type;
-    private BigInteger value;
+    private long value;
     int label;
     Gate[] in;
 
@@ -18,15 +16,15 @@ public class Gate implements Comparable<Gate>{
     private int level = -1;
 
     // For the verification part of the actively secure protocol.
-    BigInteger getVerf() {
+    long getVerf() {
         return verf;
     }
 
-    void setVerf(BigInteger verf) {
+    void setVerf(long verf) {
         this.verf = verf;
     }
 
-    private BigInteger verf;
+    private long verf;
 
     /*
     Constructor if the type is mult by const or input where the label either refers to the party which
@@ -42,6 +40,28 @@ public class Gate implements Comparable<Gate>{
         this(type, Integer.MIN_VALUE);
     }
 
+    /*
+    A LINEAR gate computes offset + coeffs[0]*in[0] + ... + coeffs[k-1]*in[k-1], where the coefficients are mapped into
+    the field with Field.fromLong. It may have any number of inputs, also none.
+    */
+    // A DOT gate with 2k inputs computes in[0]*in[k] + ... + in[k-1]*in[2k-1].
+    long[] getCoeffs() {
+        return coeffs;
+    }
+
+    long getOffset() {
+        return offset;
+    }
+
+    void setLinear(Gate[] in, long[] coeffs, long offset) {
+        this.in = in;
+        this.coeffs = coeffs;
+        this.offset = offset;
+    }
+
+    private long[] coeffs;
+    private long offset;
+
     boolean getComputed() {
         return isComputed;
     }
@@ -61,11 +81,11 @@ public class Gate implements Comparable<Gate>{
 
 
     // Getters and setters
-    BigInteger getValue() {
+    long getValue() {
         return value;
     }
 
-    public void setValue(BigInteger value) {
+    public void setValue(long value) {
         this.value = value;
     }
     public Type getType() {
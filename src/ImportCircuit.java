@@ -1,10 +1,24 @@
 import java.io.BufferedReader;
 import java.io.FileReader;
 import java.io.IOException;
-import java.math.BigInteger;
 import java.util.Arrays;
 
 class ImportCircuit {
+    // Whether the imported circuit is simplified by CircuitOptimizer before it is layered.
+    static boolean optimize = true;
+
+    // The characteristic of the field the circuit is evaluated in, 0 if it may be any field.
+    private final long characteristic;
+
+    ImportCircuit() {
+        this.characteristic = 0;
+    }
+
+    // Imports the circuits for evaluation in the field, so the optimizer can reduce the linear gates modulo its
+    // characteristic. In GF(2^k) the XOR gates are additions and need no multiplication gate.
+    ImportCircuit(Field field) {
+        this.characteristic = field.characteristic();
+    }
 
     Gate[] importCircuit(String inputFile) {
         try (BufferedReader br = new BufferedReader(new FileReader(inputFile))) {
@@ -26,9 +40,9 @@ class ImportCircuit {
             // Number of output gates
             int n_out = Integer.parseInt(line.substring(line.lastIndexOf(" ") + 1));
 
-            // number of gates in the circuit is the input gates + 4 times the number of gates in the
-            // circuit since each XOR gate results in 4 gates in this circuit!
-            Gate[] circuit = new Gate[n1 + n2 + 4*numberOfGates + n_out];
+            // number of gates in the circuit is the input gates + 2 times the number of gates in the
+            // circuit since each XOR gate results in 2 gates in this circuit!
+            Gate[] circuit = new Gate[n1 + n2 + 2*numberOfGates + n_out];
 
             // Inputs of P0
             for (int i = 0; i < n1; i++) {
@@ -41,15 +55,6 @@ class ImportCircuit {
                 circuit[i].setLevel(0);
             }
 
-            // Use this to add with const -- but without making a new type of gate
-            Gate const1 = new Gate(Type.INPUT, -1);
-            const1.setValue(BigInteger.ONE);
-            const1.setComputed();
-            const1.setLevel(0);
-
-            circuit[0].setIn(new Gate[]{const1});
-
-
             br.readLine();
             line = br.readLine();
             int[] mapWireToGate = new int[n1+n2+numberOfGates];
@@ -62,6 +67,25 @@ class ImportCircuit {
                 // System.out.println("c " + c);
                 // There are empty lines at the end -- this is a check of some sorts.
                 if(!line.contains(" ")) { break; }
+                String gateLine = line;
+                // An inner product: 2k input wires x_1 .. x_k y_1 .. y_k and one output wire.
+                if (line.trim().endsWith("DOT")) {
+                    String[] wires = line.trim().split("\\s+");
+                    int nIn = Integer.parseInt(wires[0]);
+                    if (nIn % 2 != 0)
+                        throw new IllegalArgumentException("A DOT gate needs an even number of inputs: " + gateLine);
+                    Gate[] ins = new Gate[nIn];
+                    for (int i = 0; i < nIn; i++) {
+                        ins[i] = circuit[mapWireToGate[Integer.parseInt(wires[2 + i])]];
+                    }
+                    Gate g = new Gate(Type.DOT);
+                    g.setIn(ins);
+                    circuit[counter] = g;
+                    mapWireToGate[Integer.parseInt(wires[2 + nIn])] = counter;
+                    line = br.readLine();
+                    counter++;
+                    continue;
+                }
                 int nIn = Integer.parseInt(line.substring(0, line.indexOf(" ")));
                 line = line.substring(line.indexOf(" ") + 1);
 
@@ -77,20 +101,12 @@ class ImportCircuit {
                     // When this happens the gate is INV
                     line = line.substring(line.indexOf(" ") + 1);
                     type = line;
+                    if (!type.equals("INV"))
+                        throw new IllegalArgumentException("Unknown gate type: " + gateLine);
                     Gate g = circuit[mapWireToGate[v1]];
                     // inv(g) = -g + 1
-
-                    // Multiply by -1
-                    Gate g_neg = new Gate(Type.CONST, -1);
-                    Gate[] ins_inv = {g};
-                    g_neg.setIn(ins_inv);
-                    circuit[counter] = g_neg;
-                    counter++;
-
-                    // Add together.
-                    Gate g_res = new Gate(Type.ADD);
-                    Gate[] ins_res = {const1, g_neg};
-                    g_res.setIn(ins_res);
+                    Gate g_res = new Gate(Type.LINEAR);
+                    g_res.setLinear(new Gate[]{g}, new long[]{-1}, 1);
                     circuit[counter] = g_res;
                     mapWireToGate[v2] = counter;
 
@@ -112,13 +128,6 @@ class ImportCircuit {
                         // System.out.println("XOR");
                         // To compute w1 XOR w2 in the field F_p we need to compute w1+w2 - w1*w2
 
-                        // add b1 and b2
-                        Gate g_add = new Gate(Type.ADD);
-                        Gate[] ins_add = {g1, g2};
-                        g_add.setIn(ins_add);
-                        circuit[counter] = g_add;
-                        counter++;
-
                         // multiply b1 and b2
                         Gate g_mult = new Gate(Type.MULT);
                         Gate[] ins_mult = {g1, g2};
@@ -126,22 +135,13 @@ class ImportCircuit {
                         circuit[counter] = g_mult;
                         counter++;
 
-                        // Multiply by -2 to get ready to subtract
-                        Gate g_sub = new Gate(Type.CONST, -2);
-                        Gate[] ins_sub = {g_mult};
-                        g_sub.setIn(ins_sub);
-                        circuit[counter] = g_sub;
-                        counter++;
-
-
-                        // Add together.
-                        Gate g_res = new Gate(Type.ADD);
-                        Gate[] ins_res = {g_add, g_sub};
-                        g_res.setIn(ins_res);
+                        // b1 + b2 - 2*b1*b2
+                        Gate g_res = new Gate(Type.LINEAR);
+                        g_res.setLinear(new Gate[]{g1, g2, g_mult}, new long[]{1, 1, -2}, 0);
                         circuit[counter] = g_res;
                         mapWireToGate[v3] = counter;
                     } else {
-                        System.out.println("ERROR!");
+                        throw new IllegalArgumentException("Unknown gate type: " + gateLine);
                     }
                 }
                 line = br.readLine();
@@ -159,6 +159,8 @@ class ImportCircuit {
 
             // Trim the array
             circuit = Arrays.copyOfRange(circuit, 0, counter + n_out);
+            if (optimize)
+                circuit = CircuitOptimizer.optimize(circuit, characteristic);
             setLevels(circuit);
             return circuit;
         } catch (IOException e) {
@@ -168,6 +170,18 @@ class ImportCircuit {
         return new Gate[0];
     }
 
+    /*
+    How setLevels layers the circuit. The protocols compute the linear gates of a level locally and then the
+    multiplication and DOT gates of the level in one round, so the number of rounds is the number of levels with
+    multiplication or DOT gates, plus one for the outputs.
+        GATE_DEPTH: every gate is one level above its highest input, so linear gates add levels.
+        MULT_DEPTH: the linear gates are free. A gate is on the level of its highest input, or the level after if that
+                    input is a multiplication gate, so the multiplication gates of the same multiplicative depth share
+                    a round.
+     */
+    enum Layering { GATE_DEPTH, MULT_DEPTH }
+    static Layering layering = Layering.MULT_DEPTH;
+
     private void setLevels(Gate[] circuit) {
         int largestLvl = 0;
         for (Gate g : circuit) {
@@ -176,20 +190,55 @@ class ImportCircuit {
             if (g.getType().equals(Type.INPUT)) continue;
             //  Output
             if (g.getType().equals(Type.OUTPUT)) {
-                lvl = largestLvl;
-            } else {
+                g.setLevel(largestLvl + 1);
+                continue;
+            }
+            if (layering == Layering.GATE_DEPTH) {
                 for (Gate in : g.getIn()) {
                     if (in.getLevel() > lvl)
                         lvl = in.getLevel();
                 }
-                if (lvl+1 > largestLvl)
-                    largestLvl = lvl + 1;
+                lvl++;
+            } else {
+                // Level 0 only holds the inputs. The multiplication gates of a level are computed after its linear
+                // gates, so a gate using one of them has to go on the next level.
+                lvl = 1;
+                for (Gate in : g.getIn()) {
+                    boolean product = in.getType() == Type.MULT || in.getType() == Type.DOT;
+                    int inLvl = product ? in.getLevel() + 1 : in.getLevel();
+                    if (inLvl > lvl)
+                        lvl = inLvl;
+                }
             }
-            int res = lvl +1;
-            g.setLevel(res);
+            if (lvl > largestLvl)
+                largestLvl = lvl;
+            g.setLevel(lvl);
         }
+        // The sort is stable, so the gates of a level stay in the order of the file, where the inputs of a gate come
+        // before it.
         Arrays.sort(circuit);
     }
 
-
+    // Prints the number of gates, multiplication and DOT gates, levels and rounds of the circuits, with and without the
+    // optimizer and with both layerings, and optimized for GF(2^8).
+    public static void main(String[] args) {
+        for (String path : args) {
+            for (boolean o : new boolean[]{false, true}) {
+                for (Layering l : Layering.values()) {
+                    optimize = o;
+                    layering = l;
+                    CompiledCircuit c = CompiledCircuit.compile(new ImportCircuit().importCircuit(path));
+                    System.out.println(path + (o ? " optimized " : " ") + l + ": " + c.size + " gates, "
+                            + c.getNumberOfMults() + " mults, " + c.getNumberOfDots() + " dots, " + c.numberOfLevels + " levels, " + c.rounds() + " rounds");
+                }
+            }
+        }
+        optimize = true;
+        layering = Layering.MULT_DEPTH;
+        for (String path : args) {
+            CompiledCircuit c = CompiledCircuit.compile(new ImportCircuit(new GF2kField(8)).importCircuit(path));
+            System.out.println(path + " optimized for GF(2^8) " + layering + ": " + c.size + " gates, "
+                    + c.getNumberOfMults() + " mults, " + c.getNumberOfDots() + " dots, " + c.numberOfLevels + " levels, " + c.rounds() + " rounds");
+        }
+    }
 }
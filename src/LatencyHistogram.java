@@ -0,0 +1,79 @@
+import java.util.Arrays;
+
+/*
+Histogram of how long the rounds take, i.e. the time from the start of the send of a round until the last receive
+of the round has its elements. A round starts with startRound and ends with the start of the next round, so the
+receives are counted for the last round started before they return. Bucket i counts the rounds with a latency in
+[2^(i-1), 2^i) microseconds, bucket 0 the rounds that did not have to wait at all. Rounds without any receive, e.g.
+the last sends of a run, are not recorded.
+ */
+public class LatencyHistogram {
+    private static final int BUCKETS = 32;
+
+    private final long[] buckets = new long[BUCKETS];
+    private long rounds = 0;
+    private long totalNanos = 0;
+    private long maxNanos = 0;
+    // The start of the current round and the end of its last receive, 0 if it has none yet.
+    private long roundStart = 0;
+    private long lastReceive = 0;
+
+    // Starts a round at the send of its elements, which ends the current round.
+    synchronized void startRound() {
+        endRound();
+        roundStart = System.nanoTime();
+    }
+
+    // Called when a receive returns the elements it waited for.
+    synchronized void received() {
+        if (roundStart != 0)
+            lastReceive = System.nanoTime();
+    }
+
+    // Records the current round if it had a receive.
+    synchronized void endRound() {
+        if (lastReceive != 0)
+            record(lastReceive - roundStart);
+        roundStart = 0;
+        lastReceive = 0;
+    }
+
+    private void record(long nanos) {
+        long micros = nanos / 1000;
+        int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+        buckets[bucket]++;
+        rounds++;
+        totalNanos += nanos;
+        maxNanos = Math.max(maxNanos, nanos);
+    }
+
+    synchronized long getRounds() {
+        return rounds;
+    }
+
+    synchronized void reset() {
+        Arrays.fill(buckets, 0);
+        rounds = 0;
+        totalNanos = 0;
+        maxNanos = 0;
+        roundStart = 0;
+        lastReceive = 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        endRound();
+        StringBuilder sb = new StringBuilder();
+        sb.append("rounds ").append(rounds);
+        if (rounds > 0) {
+            sb.append(", mean ").append(totalNanos / rounds / 1000).append(" us");
+            sb.append(", max ").append(maxNanos / 1000).append(" us");
+        }
+        for (int i = 0; i < BUCKETS; i++) {
+            if (buckets[i] == 0) continue;
+            long upper = 1L << i;
+            sb.append("\n  < ").append(upper).append(" us: ").append(buckets[i]);
+        }
+        return sb.toString();
+    }
+}
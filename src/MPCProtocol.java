@@ -1,5 +1,18 @@
+import java.util.List;
+
 public interface MPCProtocol {
-    public long[] runProtocol(Gate[] circuit);
+    public long[] runProtocol(CompiledCircuit circuit);
     public void setup();
     public void stop();
+
+    // The phases of the last run with their communication and time, see ConnectionHolder.phase.
+    public List<PhaseStats> takePhases();
+
+    // Compiles the circuit, runs the protocol on it and stores the resulting shares in the gates.
+    public default long[] runProtocol(Gate[] circuit) {
+        CompiledCircuit compiled = CompiledCircuit.compile(circuit);
+        long[] res = runProtocol(compiled);
+        compiled.writeBack();
+        return res;
+    }
 }
@@ -0,0 +1,50 @@
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/*
+In-memory connection between two parties running in the same JVM. The two ends of a pair are found through the
+ports of the two parties, and a frame sent on one end is put in the queue of the other end. Frames arrive in the
+order they are sent and no sockets are involved, which makes runs independent of the network stack.
+ */
+public class MemoryConnection implements PullConnection {
+    private static final ConcurrentHashMap<Long, MemoryConnection[]> pairs = new ConcurrentHashMap<>();
+    // Put in the queue by close() to wake up a blocked receive().
+    private static final byte[] CLOSED = new byte[0];
+
+    private final LinkedBlockingQueue<byte[]> queue = new LinkedBlockingQueue<>();
+    private MemoryConnection other;
+    private long key;
+
+    // Returns the end of party partyNr, listening on port, of the connection to party peerNr, listening on peerPort.
+    static MemoryConnection connect(int port, int peerPort, int partyNr, int peerNr) {
+        long key = (long) Math.min(port, peerPort) << 32 | Math.max(port, peerPort);
+        MemoryConnection[] pair = pairs.computeIfAbsent(key, p -> {
+            MemoryConnection[] res = {new MemoryConnection(), new MemoryConnection()};
+            res[0].other = res[1];
+            res[1].other = res[0];
+            res[0].key = p;
+            res[1].key = p;
+            return res;
+        });
+        return pair[partyNr < peerNr ? 0 : 1];
+    }
+
+    public void send(byte[] s) {
+        other.queue.add(s);
+    }
+
+    public byte[] receive() {
+        try {
+            byte[] res = queue.take();
+            return res == CLOSED ? null : res;
+        } catch (InterruptedException e) {
+            return null;
+        }
+    }
+
+    public void close() {
+        // The pair is forgotten, such that the port can be used by the next run.
+        pairs.computeIfPresent(key, (p, pair) -> pair[0] == this || pair[1] == this ? null : pair);
+        queue.add(CLOSED);
+    }
+}
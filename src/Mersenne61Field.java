@@ -0,0 +1,85 @@
+import java.math.BigInteger;
+import java.security.SecureRandom;
+
+/*
+The field with p = 2^61 - 1. Since 2^61 = 1 mod p, a number is reduced by adding the bits above bit 61 to the
+lower 61 bits, so none of the operations needs a division.
+ */
+public class Mersenne61Field implements Field {
+    static final long P = (1L << 61) - 1;
+    static final BigInteger P_BIG = BigInteger.valueOf(P);
+
+    @Override
+    public long add(long a, long b) {
+        long s = a + b;
+        return s >= P ? s - P : s;
+    }
+
+    @Override
+    public long subtract(long a, long b) {
+        long s = a - b;
+        return s < 0 ? s + P : s;
+    }
+
+    @Override
+    public long multiply(long a, long b) {
+        // The product is below 2^122, hi holds the bits above 64.
+        long hi = Math.multiplyHigh(a, b);
+        long lo = a * b;
+        long s = (lo & P) + ((lo >>> 61) | (hi << 3));
+        return s >= P ? s - P : s;
+    }
+
+    @Override
+    public long negate(long a) {
+        return a == 0 ? 0 : P - a;
+    }
+
+    @Override
+    public long inverse(long a) {
+        return pow(a, P - 2);
+    }
+
+    @Override
+    public long fromLong(long a) {
+        // a = (a >> 61)*2^61 + (a & P) where 2^61 = 1, and a >> 61 is in [-4, 3].
+        long s = (a & P) + (a >> 61);
+        if (s < 0) return s + P;
+        return s >= P ? s - P : s;
+    }
+
+    @Override
+    public long fromBigInteger(BigInteger a) {
+        return a.mod(P_BIG).longValue();
+    }
+
+    @Override
+    public BigInteger toBigInteger(long a) {
+        return BigInteger.valueOf(a);
+    }
+
+    @Override
+    public long random(SecureRandom sc) {
+        long r;
+        do {
+            r = sc.nextLong() & P;
+        } while (r == P);
+        return r;
+    }
+
+    @Override
+    public long random(long r, SecureRandom sc) {
+        r &= P;
+        return r == P ? random(sc) : r;
+    }
+
+    @Override
+    public int bitLength() {
+        return 61;
+    }
+
+    @Override
+    public long characteristic() {
+        return P;
+    }
+}
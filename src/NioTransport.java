@@ -0,0 +1,207 @@
+import java.io.IOException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+/*
+Connections to all the other parties on java.nio channels, multiplexed by one Selector running on this thread.
+Frames are the same as for SocketConnection: the length of the frame as 4 bytes followed by the frame.
+    - Reading is done by this thread only, which hands every complete frame to the FrameHandler. The frames are
+      read into an array of the Peer which is reused.
+    - Sending writes directly to the channel from the calling thread. If the channel can not take the whole frame,
+      the rest is queued and written by this thread when the channel becomes writable.
+ */
+public class NioTransport extends Thread {
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final int n;
+    private final int partyNr;
+    private final int[] ports;
+    private final String[] hostnames;
+    private final FrameHandler handler;
+
+    private Selector selector;
+    private final Peer[] peers;
+    private volatile boolean running = true;
+
+    NioTransport(int n, int partyNr, int[] ports, String[] hostnames, FrameHandler handler) {
+        this.n = n;
+        this.partyNr = partyNr;
+        this.ports = ports;
+        this.hostnames = hostnames;
+        this.handler = handler;
+        peers = new Peer[n];
+    }
+
+    // Connects to all the other parties through PeerChannels and registers the channels with the selector.
+    void connect() {
+        try {
+            selector = Selector.open();
+            SocketChannel[] channels = PeerChannels.connect(n, partyNr, ports, hostnames);
+            for (int j = 0; j < n; j++) {
+                if (j == partyNr) continue;
+                channels[j].setOption(StandardSocketOptions.TCP_NODELAY, true);
+                channels[j].configureBlocking(false);
+                peers[j] = new Peer(j, channels[j]);
+                peers[j].key = channels[j].register(selector, SelectionKey.OP_READ, peers[j]);
+            }
+        } catch (IOException e) {
+            System.out.println("Not able to connect the NIO transport!");
+            e.printStackTrace();
+        }
+    }
+
+    Connection connection(int j) {
+        return peers[j];
+    }
+
+    public void run() {
+        try {
+            while (running) {
+                selector.select();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    Peer peer = (Peer) key.attachment();
+                    if (!key.isValid()) continue;
+                    if (key.isReadable()) peer.read();
+                    if (key.isValid() && key.isWritable()) peer.flush();
+                }
+            }
+        } catch (IOException e) {
+            // The selector is closed when we are done.
+            if (running) e.printStackTrace();
+        }
+    }
+
+    public void close() {
+        running = false;
+        for (Peer peer : peers) {
+            if (peer != null) peer.close();
+        }
+        selector.wakeup();
+        try {
+            join();
+            selector.close();
+        } catch (InterruptedException | IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // The connection to a single party. It only sends, its frames are handed on by the selector thread.
+    class Peer implements Connection {
+        private final int connectionNr;
+        private final SocketChannel channel;
+        private SelectionKey key;
+
+        // Only used by the selector thread.
+        private final ByteBuffer in = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        // The frame being read, in an array which is reused for the next frames. frameLength is -1 between frames.
+        private byte[] frame = new byte[BUFFER_SIZE];
+        private int frameLength = -1;
+        private int framePos;
+
+        // Guarded by this.
+        private final ArrayDeque<ByteBuffer> pending = new ArrayDeque<>();
+
+        Peer(int connectionNr, SocketChannel channel) {
+            this.connectionNr = connectionNr;
+            this.channel = channel;
+        }
+
+        // Reads what is available and hands on the frames which are complete.
+        private void read() {
+            int read;
+            try {
+                read = channel.read(in);
+            } catch (IOException e) {
+                read = -1;
+            }
+            if (read == -1) {
+                // The other party is done.
+                key.cancel();
+                return;
+            }
+            in.flip();
+            while (true) {
+                if (frameLength == -1) {
+                    if (in.remaining() < 4) break;
+                    frameLength = in.getInt();
+                    if (frameLength > frame.length)
+                        frame = new byte[frameLength];
+                    framePos = 0;
+                }
+                int k = Math.min(in.remaining(), frameLength - framePos);
+                in.get(frame, framePos, k);
+                framePos += k;
+                if (framePos < frameLength) break;
+                int length = frameLength;
+                frameLength = -1;
+                handler.onFrame(connectionNr, frame, length);
+            }
+            in.compact();
+        }
+
+        /*
+        Writes the length header and s with one gathering write. s is wrapped and not copied, since it may be shared
+        with other connections (see ConnectionHolder.broadcast), and what the channel does not take is queued as
+        read-only views of the header and s.
+         */
+        public synchronized void send(byte[] s) {
+            try {
+                ByteBuffer[] frame = {ByteBuffer.allocate(4).putInt(0, s.length), ByteBuffer.wrap(s).asReadOnlyBuffer()};
+                if (pending.isEmpty()) {
+                    channel.write(frame);
+                    if (!frame[1].hasRemaining())
+                        return;
+                }
+                // The channel is full, the rest is written by the selector thread.
+                for (ByteBuffer buffer : frame) {
+                    if (buffer.hasRemaining()) pending.add(buffer);
+                }
+                key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                selector.wakeup();
+            } catch (IOException e) {
+                System.out.println("Not able to write to channel!");
+                e.printStackTrace();
+            }
+        }
+
+        // Writes the queued frames, called by the selector thread when the channel is writable.
+        private synchronized void flush() {
+            try {
+                while (!pending.isEmpty()) {
+                    ByteBuffer buffer = pending.peek();
+                    channel.write(buffer);
+                    if (buffer.hasRemaining())
+                        return;
+                    pending.remove();
+                }
+                key.interestOps(SelectionKey.OP_READ);
+            } catch (IOException e) {
+                System.out.println("Not able to write to channel!");
+                e.printStackTrace();
+            }
+        }
+
+        public synchronized void close() {
+            try {
+                // Let the queued frames get out before closing.
+                for (ByteBuffer buffer : pending) {
+                    while (buffer.hasRemaining()) {
+                        if (channel.write(buffer) == 0) Thread.onSpinWait();
+                    }
+                }
+                pending.clear();
+                channel.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
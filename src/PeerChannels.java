@@ -0,0 +1,105 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+/*
+Makes the socket connections between a party and the other parties. Every party listens on its own port,
+ports[partyNr], and dials the parties with a higher number, all of them in parallel. The dialing party first sends its
+number and the number of the stream as 4 bytes each, so the listening party knows whom it accepted. The parties never
+race for a port and may start in any order, and n parties use n ports.
+ */
+class PeerChannels {
+    // Returns the connected blocking channels indexed by the number of the other party, null for ourself.
+    static SocketChannel[] connect(int n, int partyNr, int[] ports, String[] hostnames) throws IOException {
+        SocketChannel[][] res = connect(n, partyNr, ports, hostnames, 1);
+        SocketChannel[] channels = new SocketChannel[n];
+        for (int j = 0; j < n; j++) {
+            if (j != partyNr) channels[j] = res[j][0];
+        }
+        return channels;
+    }
+
+    // Returns streams connected blocking channels to every other party, indexed by its number and the stream.
+    static SocketChannel[][] connect(int n, int partyNr, int[] ports, String[] hostnames, int streams) throws IOException {
+        SocketChannel[][] res = new SocketChannel[n][streams];
+        // The parties with a smaller number dial us, party 0 is only dialing.
+        ServerSocketChannel server = null;
+        if (partyNr > 0) {
+            server = ServerSocketChannel.open();
+            server.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+            server.bind(new InetSocketAddress(ports[partyNr]));
+        }
+
+        Thread[][] dialers = new Thread[n][streams];
+        for (int j = partyNr + 1; j < n; j++) {
+            for (int c = 0; c < streams; c++) {
+                int peer = j;
+                int stream = c;
+                dialers[j][c] = new Thread(() -> res[peer][stream] = dial(hostnames[peer], ports[peer], partyNr, stream));
+                dialers[j][c].start();
+            }
+        }
+
+        try {
+            for (int k = 0; k < partyNr * streams; k++) {
+                SocketChannel channel = server.accept();
+                ByteBuffer handshake = ByteBuffer.allocate(8);
+                while (handshake.hasRemaining()) {
+                    if (channel.read(handshake) == -1)
+                        throw new EOFException("Connection closed during the handshake");
+                }
+                int j = handshake.getInt(0);
+                int c = handshake.getInt(4);
+                if (j < 0 || j >= partyNr || c < 0 || c >= streams || res[j][c] != null) {
+                    channel.close();
+                    throw new IOException("Unexpected handshake from party " + j + " stream " + c);
+                }
+                res[j][c] = channel;
+            }
+        } finally {
+            if (server != null)
+                server.close();
+        }
+
+        for (int j = partyNr + 1; j < n; j++) {
+            for (int c = 0; c < streams; c++) {
+                try {
+                    dialers[j][c].join();
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                }
+                if (res[j][c] == null)
+                    throw new IOException("Not able to connect to party " + j);
+            }
+        }
+        return res;
+    }
+
+    // Connects to the port of a party with a higher number, waiting until it listens, and sends our number and the
+    // number of the stream.
+    private static SocketChannel dial(String hostname, int port, int partyNr, int stream) {
+        try {
+            while (true) {
+                try {
+                    SocketChannel channel = SocketChannel.open(new InetSocketAddress(hostname, port));
+                    ByteBuffer handshake = ByteBuffer.allocate(8).putInt(0, partyNr).putInt(4, stream);
+                    while (handshake.hasRemaining()) {
+                        channel.write(handshake);
+                    }
+                    return channel;
+                } catch (ConnectException e) {
+                    // The other party is not listening yet.
+                    Thread.sleep(10);
+                }
+            }
+        } catch (IOException | InterruptedException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+}
@@ -0,0 +1,18 @@
+/*
+The communication and time of one phase of a run as recorded by ConnectionHolder.phase.
+The CPU time is the CPU time of the whole process during the phase, which includes the other parties when they run
+in the same JVM.
+ */
+public class PhaseStats {
+    final String name;
+    long wallNanos;
+    long cpuNanos;
+    long bytes;
+    long messages;
+    long shares;
+    long rounds;
+
+    PhaseStats(String name) {
+        this.name = name;
+    }
+}
@@ -0,0 +1,91 @@
+import java.math.BigInteger;
+import java.security.SecureRandom;
+
+/*
+The field F_p for any prime p of at most 62 bits, so the sum of two elements still fits in a long. Larger primes use
+BigPrimeField.
+Products of primes below 2^31 fit in a long as well, for larger primes the reduction falls back on BigInteger.
+ */
+public class PrimeField implements Field {
+    private final long p;
+    private final BigInteger P;
+    private final int bits;
+    private final boolean smallPrime;
+
+    PrimeField(BigInteger P) {
+        this.P = P;
+        p = P.longValue();
+        bits = P.bitLength();
+        smallPrime = bits <= 31;
+    }
+
+    @Override
+    public long add(long a, long b) {
+        long s = a + b;
+        return s >= p ? s - p : s;
+    }
+
+    @Override
+    public long subtract(long a, long b) {
+        long s = a - b;
+        return s < 0 ? s + p : s;
+    }
+
+    @Override
+    public long multiply(long a, long b) {
+        if (smallPrime)
+            return (a * b) % p;
+        return BigInteger.valueOf(a).multiply(BigInteger.valueOf(b)).mod(P).longValue();
+    }
+
+    @Override
+    public long negate(long a) {
+        return a == 0 ? 0 : p - a;
+    }
+
+    @Override
+    public long inverse(long a) {
+        return BigInteger.valueOf(a).modInverse(P).longValue();
+    }
+
+    @Override
+    public long fromLong(long a) {
+        return Math.floorMod(a, p);
+    }
+
+    @Override
+    public long fromBigInteger(BigInteger a) {
+        return a.mod(P).longValue();
+    }
+
+    @Override
+    public BigInteger toBigInteger(long a) {
+        return BigInteger.valueOf(a);
+    }
+
+    @Override
+    public long random(SecureRandom sc) {
+        long mask = (1L << bits) - 1;
+        long r;
+        do {
+            r = sc.nextLong() & mask;
+        } while (r >= p);
+        return r;
+    }
+
+    @Override
+    public long random(long r, SecureRandom sc) {
+        r &= (1L << bits) - 1;
+        return r >= p ? random(sc) : r;
+    }
+
+    @Override
+    public int bitLength() {
+        return bits;
+    }
+
+    @Override
+    public long characteristic() {
+        return p;
+    }
+}
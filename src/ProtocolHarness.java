@@ -0,0 +1,308 @@
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/*
+Runs a protocol with n parties as threads in this JVM and reports the communication and time of every phase.
+    java ProtocolHarness <protocol>[:F] <n> <circuit> [transport] [json|csv] [runs] [output file]
+The protocol is ceps, dn, dn_dk or cgh18 (or 0-3 as in Test_Protocol_nP), optionally with the size F of the field,
+a prime or 2^k for GF(2^k) (see Field.of), e.g. cgh18:256. The default is the prime 2^61 - 1. The transport is memory
+(default), socket, socket:k for k sockets to every party (see ConnectionHolder.streams), nio or shared_memory,
+followed by :text or :binary for the wire format, e.g. socket:2:text. The default wire format is binary. The
+inputs are random bits from a fixed seed, and the outputs of every run are reconstructed and checked against an
+evaluation of the circuit in the clear. The printouts of the protocols are suppressed, the report goes to stdout or
+the output file.
+    java ProtocolHarness check
+runs every protocol with 3 parties on the circuits of CHECKS, from the directory holding Test_Circuits, and exits
+with 1 if a run is wrong or hangs.
+ */
+public class ProtocolHarness {
+    // The circuits run by check(), with the field appended to the protocol. dot.txt has no multiplication gates, and
+    // neither has xor.txt in GF(2^8), where the XOR gates are linear. 2^89 - 1 is a prime for BigPrimeField.
+    private static final String[][] CHECKS = {
+            {"Test_Circuits/adder_32bit.txt", ""},
+            {"Test_Circuits/mult_32x32.txt", ""},
+            {"Test_Circuits/dot.txt", ""},
+            {"Test_Circuits/xor.txt", ""},
+            {"Test_Circuits/adder_32bit.txt", ":256"},
+            {"Test_Circuits/dot.txt", ":256"},
+            {"Test_Circuits/xor.txt", ":256"},
+            {"Test_Circuits/adder_32bit.txt", ":618970019642690137449562111"},
+    };
+    private static final int CHECK_SECONDS = 60;
+
+    private final String protocolName;
+    private final BigInteger F;
+    private final int n;
+    private final String circuitPath;
+    private final int runs;
+
+    // Results, indexed by run and party.
+    private final List<List<List<PhaseStats>>> phases = new ArrayList<>();
+    private final boolean[] correct;
+    private final long[] wallNanos;
+    private final long[] cpuNanos;
+    private long setupWallNanos;
+
+    ProtocolHarness(String protocolName, int n, String circuitPath, int runs) {
+        this.protocolName = protocolName;
+        String[] parts = protocolName.split(":");
+        F = parts.length > 1 ? new BigInteger(parts[1]) : Mersenne61Field.P_BIG;
+        this.n = n;
+        this.circuitPath = circuitPath;
+        this.runs = runs;
+        correct = new boolean[runs];
+        wallNanos = new long[runs];
+        cpuNanos = new long[runs];
+    }
+
+    private MPCProtocol newProtocol(String name, int partyNr, BigInteger[] x, int n, String[] hostnames, int[] ports) {
+        switch (name.split(":")[0].toLowerCase()) {
+            case "0": case "ceps":
+                return new CEPS(partyNr, F, x, n, hostnames, ports);
+            case "1": case "dn":
+                return new DamgaardNielsen(partyNr, F, x, n, hostnames, ports);
+            case "2": case "dn_dk":
+                return new DamgaardNielsen_DK(partyNr, F, x, n, hostnames, ports);
+            case "3": case "cgh18":
+                return new CGH18(partyNr, F, x, n, hostnames, ports);
+            default:
+                throw new IllegalArgumentException("Unknown protocol " + name);
+        }
+    }
+
+    void run() throws InterruptedException {
+        Field field = Field.of(F);
+        ImportCircuit imp = new ImportCircuit(field);
+        CompiledCircuit plain = CompiledCircuit.compile(imp.importCircuit(circuitPath));
+
+        // Random input bits for every party, and the same inputs in the order of the input gates.
+        Random random = new Random(1);
+        BigInteger[][] x = new BigInteger[n][];
+        for (int p = 0; p < n; p++) {
+            x[p] = new BigInteger[plain.getNumberOfInputs(p)];
+            for (int i = 0; i < x[p].length; i++) {
+                x[p][i] = BigInteger.valueOf(random.nextInt(2));
+            }
+        }
+        long[] inputs = new long[plain.numberOfInputs];
+        int[] next = new int[n];
+        for (int i = 0; i < plain.numberOfInputs; i++) {
+            int label = plain.constant[i];
+            inputs[i] = field.fromBigInteger(x[label][next[label]++]);
+        }
+        long[] expected = plain.evaluatePlain(field, inputs);
+
+        int[][] ports = GeneratePortnumbers.getPortnumbers(n);
+        String[] hostnames = new String[n];
+        Arrays.fill(hostnames, "localhost");
+        MPCProtocol[] protocols = new MPCProtocol[n];
+        for (int p = 0; p < n; p++) {
+            protocols[p] = newProtocol(protocolName, p, x[p], n, hostnames, ports[p]);
+        }
+
+        long t1 = System.nanoTime();
+        runParties(p -> protocols[p].setup());
+        setupWallNanos = System.nanoTime() - t1;
+
+        for (int run = 0; run < runs; run++) {
+            Gate[][] circuits = new Gate[n][];
+            for (int p = 0; p < n; p++) {
+                circuits[p] = imp.importCircuit(circuitPath);
+            }
+
+            long cpu = processCpuTime();
+            t1 = System.nanoTime();
+            runParties(p -> protocols[p].runProtocol(circuits[p]));
+            wallNanos[run] = System.nanoTime() - t1;
+            cpuNanos[run] = processCpuTime() - cpu;
+
+            List<List<PhaseStats>> runPhases = new ArrayList<>();
+            for (int p = 0; p < n; p++) {
+                runPhases.add(protocols[p].takePhases());
+            }
+            phases.add(runPhases);
+            correct[run] = Arrays.equals(expected, reconstructOutputs(circuits, field));
+        }
+
+        runParties(p -> protocols[p].stop());
+    }
+
+    private interface PartyTask {
+        void run(int partyNr);
+    }
+
+    // Runs the task for all the parties in parallel and waits for them to finish.
+    private void runParties(PartyTask task) throws InterruptedException {
+        Thread[] threads = new Thread[n];
+        for (int p = 0; p < n; p++) {
+            int partyNr = p;
+            threads[p] = new Thread(() -> task.run(partyNr));
+            threads[p].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+    }
+
+    // Interpolates the shares of the outputs held by the parties after a run.
+    private long[] reconstructOutputs(Gate[][] circuits, Field field) {
+        SecretSharing ss = new SecretSharing(n, field);
+        int t = (int) Math.ceil(n/2.0 - 1);
+        ArrayList<Long> res = new ArrayList<>();
+        for (int i = 0; i < circuits[0].length; i++) {
+            if (circuits[0][i].getType() != Type.OUTPUT) continue;
+            long[] shares = new long[n];
+            for (int p = 0; p < n; p++) {
+                shares[p] = circuits[p][i].getIn()[0].getValue();
+            }
+            res.add(ss.interpolation(t, shares));
+        }
+        return res.stream().mapToLong(Long::longValue).toArray();
+    }
+
+    private static long processCpuTime() {
+        java.lang.management.OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (os instanceof com.sun.management.OperatingSystemMXBean)
+            return ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime();
+        return 0;
+    }
+
+    private static String ms(long nanos) {
+        return String.format("%.3f", nanos / 1e6);
+    }
+
+    String toJson() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\"protocol\":\"").append(protocolName).append("\",\"n\":").append(n)
+                .append(",\"field\":\"").append(F).append("\"")
+                .append(",\"circuit\":\"").append(circuitPath.replace("\\", "\\\\")).append("\"")
+                .append(",\"transport\":\"").append(ConnectionHolder.transport)
+                .append("\",\"streams\":").append(ConnectionHolder.streams)
+                .append(",\"wireFormat\":\"").append(ConnectionHolder.wireFormat)
+                .append("\",\"setupMs\":").append(ms(setupWallNanos)).append(",\"runs\":[");
+        for (int run = 0; run < runs; run++) {
+            if (run > 0) sb.append(',');
+            sb.append("\n  {\"run\":").append(run).append(",\"correct\":").append(correct[run])
+                    .append(",\"wallMs\":").append(ms(wallNanos[run]))
+                    .append(",\"cpuMs\":").append(ms(cpuNanos[run])).append(",\"parties\":[");
+            for (int p = 0; p < n; p++) {
+                if (p > 0) sb.append(',');
+                sb.append("\n    {\"party\":").append(p).append(",\"phases\":[");
+                List<PhaseStats> ps = phases.get(run).get(p);
+                for (int i = 0; i < ps.size(); i++) {
+                    PhaseStats s = ps.get(i);
+                    if (i > 0) sb.append(',');
+                    sb.append("\n      {\"phase\":\"").append(s.name).append("\",\"wallMs\":").append(ms(s.wallNanos))
+                            .append(",\"cpuMs\":").append(ms(s.cpuNanos)).append(",\"rounds\":").append(s.rounds)
+                            .append(",\"bytes\":").append(s.bytes).append(",\"messages\":").append(s.messages)
+                            .append(",\"shares\":").append(s.shares).append('}');
+                }
+                sb.append("]}");
+            }
+            sb.append("]}");
+        }
+        sb.append("]}\n");
+        return sb.toString();
+    }
+
+    String toCsv() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("protocol,n,circuit,transport,streams,wire_format,run,correct,party,phase,wall_ms,cpu_ms,rounds,bytes,"
+                + "messages,shares\n");
+        for (int run = 0; run < runs; run++) {
+            for (int p = 0; p < n; p++) {
+                for (PhaseStats s : phases.get(run).get(p)) {
+                    sb.append(protocolName).append(',').append(n).append(',').append(circuitPath).append(',')
+                            .append(ConnectionHolder.transport).append(',').append(ConnectionHolder.streams).append(',')
+                            .append(ConnectionHolder.wireFormat).append(',').append(run).append(',')
+                            .append(correct[run]).append(',').append(p).append(',').append(s.name).append(',')
+                            .append(ms(s.wallNanos)).append(',').append(ms(s.cpuNanos)).append(',')
+                            .append(s.rounds).append(',').append(s.bytes).append(',')
+                            .append(s.messages).append(',').append(s.shares).append('\n');
+                }
+            }
+        }
+        return sb.toString();
+    }
+
+    // Runs every protocol once on each of the CHECKS with the memory transport and prints whether the outputs are right.
+    // Returns whether all of them are, and stops at a run which does not finish in CHECK_SECONDS.
+    static boolean check() throws InterruptedException {
+        ConnectionHolder.transport = Transport.MEMORY;
+        PrintStream out = System.out;
+        boolean ok = true;
+        for (String[] c : CHECKS) {
+            for (String protocol : new String[]{"ceps", "dn", "dn_dk", "cgh18"}) {
+                ProtocolHarness harness = new ProtocolHarness(protocol + c[1], 3, c[0], 1);
+                // The parties of a hanging run are daemons, so they do not keep the JVM alive.
+                Thread run = new Thread(() -> {
+                    try {
+                        harness.run();
+                    } catch (InterruptedException e) {
+                        e.printStackTrace();
+                    }
+                });
+                run.setDaemon(true);
+                System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+                try {
+                    run.start();
+                    run.join(CHECK_SECONDS * 1000L);
+                } finally {
+                    System.setOut(out);
+                }
+                String result = run.isAlive() ? "hangs" : harness.correct[0] ? "ok" : "wrong";
+                out.println(protocol + c[1] + " " + c[0] + ": " + result);
+                if (run.isAlive())
+                    return false;
+                ok &= harness.correct[0];
+            }
+        }
+        return ok;
+    }
+
+    public static void main(String[] args) throws InterruptedException, IOException {
+        if (args.length == 1 && args[0].equals("check"))
+            System.exit(check() ? 0 : 1);
+        if (args.length < 3) {
+            System.out.println("Usage: ProtocolHarness <ceps|dn|dn_dk|cgh18>[:F] <n> <circuit> [memory|socket[:k]|nio|shared_memory][:text|:binary] [json|csv] [runs] [output file]");
+            System.out.println("   or: ProtocolHarness check");
+            return;
+        }
+        String[] transport = args.length > 3 ? args[3].toUpperCase().split(":") : new String[]{"MEMORY"};
+        ConnectionHolder.transport = Transport.valueOf(transport[0]);
+        for (int i = 1; i < transport.length; i++) {
+            if (transport[i].equals("TEXT") || transport[i].equals("BINARY"))
+                ConnectionHolder.wireFormat = WireFormat.valueOf(transport[i]);
+            else
+                ConnectionHolder.streams = Integer.parseInt(transport[i]);
+        }
+        String format = args.length > 4 ? args[4].toLowerCase() : "json";
+        int runs = args.length > 5 ? Integer.parseInt(args[5]) : 1;
+
+        ProtocolHarness harness = new ProtocolHarness(args[0], Integer.parseInt(args[1]), args[2], runs);
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try {
+            harness.run();
+        } finally {
+            System.setOut(out);
+        }
+
+        String report = format.equals("csv") ? harness.toCsv() : harness.toJson();
+        if (args.length > 6) {
+            try (FileOutputStream file = new FileOutputStream(args[6])) {
+                file.write(report.getBytes());
+            }
+        } else {
+            System.out.print(report);
+        }
+    }
+}
@@ -0,0 +1,15 @@
+// A connection whose frames are pulled by a receiver thread of ConnectionHolder. NioTransport instead pushes the frames
+// of all its connections to the handler from its selector thread, so its connections only send.
+public interface PullConnection extends Connection {
+    byte[] receive();
+
+    // Receives the next frame and hands it to the handler, or returns false if the connection is closed. Connections
+    // which can reuse their buffers for the frames override it.
+    default boolean receive(int connectionNr, FrameHandler handler) {
+        byte[] received = receive();
+        if (received == null)
+            return false;
+        handler.onFrame(connectionNr, received, received.length);
+        return true;
+    }
+}
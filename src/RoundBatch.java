@@ -0,0 +1,78 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+The elements a party sends in one round. The protocols open a batch with ConnectionHolder.openBatch(), add the
+elements for each party, possibly from several threads, and close it, which sends all the elements added for a party
+as a single frame. The number of elements does not have to be known in advance, and a party gets no frame if nothing
+was added for it, so closing an empty batch sends nothing and is no round. Adding to a closed batch is an error. A batch which only got addToAll has the same frame for every
+party, which is then encoded once and shared by all the connections.
+ */
+public class RoundBatch {
+    private final ConnectionHolder holder;
+    private final int n;
+    // The elements for each party, null for a party without elements.
+    private List<ArrayList<ConnectionHolder.pid_and_element>> toParty;
+    private int shares = 0;
+    private boolean broadcast = true;
+
+    RoundBatch(ConnectionHolder holder, int n) {
+        this.holder = holder;
+        this.n = n;
+        toParty = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            toParty.add(null);
+        }
+    }
+
+    private void add(int i, int pid, long x) {
+        if (toParty == null)
+            throw new IllegalStateException("The batch is closed");
+        if (toParty.get(i) == null)
+            toParty.set(i, new ArrayList<>());
+        toParty.get(i).add(holder.new pid_and_element(pid, x));
+        shares++;
+    }
+
+    // Adds shares[i] for party i.
+    synchronized void addShares(long[] shares, int pid) {
+        broadcast = false;
+        for (int i = 0; i < n; i++) {
+            add(i, pid, shares[i]);
+        }
+    }
+
+    // Adds x for party i.
+    synchronized void addToPi(int i, long x, int pid) {
+        broadcast = false;
+        add(i, pid, x);
+    }
+
+    // Adds x for all the parties.
+    synchronized void addToAll(long x, int pid) {
+        for (int i = 0; i < n; i++) {
+            add(i, pid, x);
+        }
+    }
+
+    // Sends one frame to every party which has elements in the batch.
+    void close() {
+        List<ArrayList<ConnectionHolder.pid_and_element>> frames;
+        int count;
+        boolean same;
+        synchronized (this) {
+            frames = toParty;
+            count = shares;
+            same = broadcast;
+            toParty = null;
+        }
+        if (frames == null)
+            throw new IllegalStateException("The batch is already closed");
+        if (count == 0)
+            return;
+        if (same && frames.get(0) != null)
+            holder.broadcast(frames.get(0), count);
+        else
+            holder.sendBatch(frames, count);
+    }
+}
@@ -15,16 +15,30 @@ public class RunProtocol {
     public static void main(String[] args) {
         /*
         if(args.length == 0) {
-            System.out.println("########################################## \nRunning the protocol takes three inputs: \n 1. This party's number " +
+            System.out.println("########################################## \nRunning the protocol takes two inputs: \n 1. This party's number " +
                     "\n 2. The number of the protocol to run (0 for CEPS, 1 for Damgård-Nielsen, 3 for CGH18)" +
-                    "\n 3. The path of the description of the circuit to be evaluated");
+                    "\n 3. Optionally the wire format of the shares (text or binary)" +
+                    "\n 4. Optionally the transport (socket, nio or shared_memory)" +
+                    "\n 5. Optionally the number of sockets to every party with the socket transport" +
+                    "\nThe circuit is Test_Circuits\\adder_32bit.txt.");
             return;
         }
         */
         partyNr = Integer.parseInt(args[0]);
         String protocolString = args[1];
+        // Optional third argument choosing the wire format of the shares, "text" or "binary".
+        if (args.length > 2)
+            ConnectionHolder.wireFormat = WireFormat.valueOf(args[2].toUpperCase());
+        // Optional fourth argument choosing the transport, "socket", "nio" or "shared_memory".
+        if (args.length > 3)
+            ConnectionHolder.transport = Transport.valueOf(args[3].toUpperCase());
+        // Optional fifth argument, the number of sockets to every party with the socket transport.
+        if (args.length > 4)
+            ConnectionHolder.streams = Integer.parseInt(args[4]);
 
-        ImportCircuit imp = new ImportCircuit();
+        // The circuit is optimized for the field, so F is read first.
+        set_F_n();
+        ImportCircuit imp = new ImportCircuit(Field.of(F));
 
         String circuitPath = "Test_Circuits\\adder_32bit.txt";
 
@@ -34,7 +48,6 @@ public class RunProtocol {
         numberOfInputs = getNumberOfInputs();
         BigInteger[] x = getInputs();
 
-        set_F_n();
         int[] ports = GeneratePortnumbers.getPortnumbers(n)[partyNr];
         setHostnames();
 
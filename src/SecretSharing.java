@@ -1,112 +1,191 @@
-import java.math.BigInteger;
+import java.nio.ByteBuffer;
 import java.security.SecureRandom;
+import java.util.BitSet;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class SecretSharing {
     int n;
-    BigInteger F;
+    Field field;
 
-    public SecretSharing(int n, BigInteger F) {
-        this.n = n;
-        this.F = F;
-    }
+    private final SecureRandom sc = new SecureRandom();
+    // vandermonde[j][c] = point(j+1)^c, the rows of the Vandermonde matrix for polynomials of degree < n.
+    private final long[][] vandermonde;
 
-    // Secret sharing -- returns array of shares which can be reconstructed to the secret given degree+1 shares.
-    public BigInteger[] secretSharing(int degree, BigInteger secret) {
-        // We want to generate polynomial of degree degree
+    private final long[][] firstRecombination;
+    private final ConcurrentHashMap<BitSet, long[]> otherRecombination = new ConcurrentHashMap<>();
 
-        // We first sample the degree of the shared polynomial doubleRandom values from F
-        BigInteger[] a = new BigInteger[degree+1];
-        SecureRandom sc = new SecureRandom();
+    public SecretSharing(int n, Field field) {
+        this.n = n;
+        this.field = field;
 
-        // Number of bits in elements of F
-        int b = F.bitLength();
+        vandermonde = new long[n][n];
+        for (int j = 0; j < n; j++) {
+            vandermonde[j][0] = field.fromLong(1);
+            for (int c = 1; c < n; c++) {
+                vandermonde[j][c] = field.multiply(vandermonde[j][c-1], field.point(j+1));
+            }
+        }
 
-        // set the polynomial to be the secret at y=0.
-        a[0] = secret;
-        int i = 1;
-        while (i <= degree) {
-            a[i] = new BigInteger(b, sc);
-            // Check if ai was generated inside the field.
-            if (a[i].compareTo(F) <= 0) i ++;
+        // The recombination vectors of the first degree+1 shares for every degree < n.
+        firstRecombination = new long[n][];
+        for (int degree = 0; degree < n; degree++) {
+            int[] first = new int[degree+1];
+            for (int i = 0; i <= degree; i++) first[i] = i;
+            firstRecombination[degree] = recombination(first);
         }
+    }
 
+    // Secret sharing -- returns array of shares which can be reconstructed to the secret given degree+1 shares.
+    public long[] secretSharing(int degree, long secret) {
+        // We sample the degree random coefficients and set the polynomial to be the secret at y=0.
+        long[] a = new long[degree+1];
+        a[0] = secret;
+        System.arraycopy(random(degree), 0, a, 1, degree);
 
-        // Computing the polynomial at each of the n points
-        BigInteger[] ss = new BigInteger[n];
-        for (int j = 1; j <= n; j++) {
-            BigInteger[] xs = new BigInteger[degree+1];
+        long[] ss = new long[n];
+        for (int j = 0; j < n; j++) {
+            ss[j] = evaluate(j, a, degree);
+        }
+        return ss;
+    }
 
-            // We create an array consisting of (X^0, X^1, ..., X^degree)
-            for (int k = 0; k <= degree; k++) {
-                xs[k] = (new BigInteger(Integer.toString(j), 10)).modPow(new BigInteger(Integer.toString(k)), F);
+    // Shares all the secrets at once, res[k] are the n shares of secrets[k].
+    public long[][] secretSharing(int degree, long[] secrets) {
+        long[] randomness = random(secrets.length * degree);
+        long[] a = new long[degree+1];
+        long[][] res = new long[secrets.length][n];
+        for (int k = 0; k < secrets.length; k++) {
+            a[0] = secrets[k];
+            System.arraycopy(randomness, k * degree, a, 1, degree);
+            for (int j = 0; j < n; j++) {
+                res[k][j] = evaluate(j, a, degree);
             }
+        }
+        return res;
+    }
 
-            // Multiply each coefficient by the value of X^i
-            BigInteger[] terms = new BigInteger[degree+1];
-            for (int k = 0; k <= degree; k++) {
-                terms[k] = (xs[k].multiply(a[k])).mod(F);
+    // Streaming variant of the batch sharing, which writes the share of party j of secrets[k] to out[j][offset + k].
+    public void secretSharing(int degree, long[] secrets, long[][] out, int offset) {
+        long[] randomness = random(secrets.length * degree);
+        long[] a = new long[degree+1];
+        for (int k = 0; k < secrets.length; k++) {
+            a[0] = secrets[k];
+            System.arraycopy(randomness, k * degree, a, 1, degree);
+            for (int j = 0; j < n; j++) {
+                out[j][offset + k] = evaluate(j, a, degree);
             }
+        }
+    }
 
-            // Add all the terms together
-            BigInteger sum = new BigInteger("0");
-            for (BigInteger c : terms)
-                sum = sum.add(c);
-            // Add the value we want to secret share
-            ss[j-1] = sum.mod(F);
+    // The share of party j of the polynomial with coefficients a, i.e. row j of the Vandermonde matrix times a.
+    private long evaluate(int j, long[] a, int degree) {
+        long[] row = vandermonde[j];
+        long sum = a[0];
+        for (int c = 1; c <= degree; c++) {
+            sum = field.add(sum, field.multiply(row[c], a[c]));
         }
+        return sum;
+    }
 
-        return ss;
+    /*
+    Randomness extraction with the hyper-invertible Vandermonde matrix M[i][j] = point(j+1)^i. Given one share of a random
+    sharing from each of the n parties it returns the l <= n-t sharings M*shares. Any n-t columns of the first n-t rows
+    of M form an invertible matrix, so the l sharings are uniformly random as long as n-t of the parties are honest.
+     */
+    public long[] extract(long[] shares, int l) {
+        if (l > n)
+            throw new IllegalArgumentException("At most n sharings can be extracted from n sharings");
+        long[] res = new long[l];
+        for (int j = 0; j < n; j++) {
+            long[] row = vandermonde[j];
+            long share = shares[j];
+            for (int i = 0; i < l; i++) {
+                res[i] = field.add(res[i], field.multiply(row[i], share));
+            }
+        }
+        return res;
+    }
+
+    // count uniformly random elements of the field, drawn from the shared stream of the SecureRandom in one go.
+    public long[] random(int count) {
+        byte[] bytes = new byte[8 * count];
+        sc.nextBytes(bytes);
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        long[] res = new long[count];
+        for (int i = 0; i < count; i++) {
+            res[i] = field.random(buffer.getLong(), sc);
+        }
+        return res;
     }
 
     // Computing the recombination vector
-    private BigInteger[] recombination(int[] goodidx) {
+    private long[] recombination(int[] goodidx) {
         // recombination vector ri = (a + b + ... + m)((i - a)(i-b)...(i-c))^-1
-        BigInteger[] r = new BigInteger[n];
+        long[] r = new long[n];
 
         for (int i : goodidx) {
-            BigInteger i_bi = (new BigInteger(Integer.toString(i+1), 10));
-            BigInteger first = BigInteger.ONE;
-            BigInteger second = BigInteger.ONE;
+            long i_f = field.point(i+1);
+            long first = field.fromLong(1);
+            long second = field.fromLong(1);
             for (int j : goodidx) {
                 if(i == j) continue;
-                BigInteger j_bi = (new BigInteger(Integer.toString(j+1), 10));
-                first = first.multiply(j_bi);
-                second = second.multiply( i_bi.subtract(j_bi) );
+                long j_f = field.point(j+1);
+                first = field.multiply(first, j_f);
+                second = field.multiply(second, field.subtract(i_f, j_f));
             }
 
-            if((goodidx.length % 2) == 0) first = first.negate();
-            first = first.mod(F);
+            if((goodidx.length % 2) == 0) first = field.negate(first);
 
-            second = second.modInverse(F);
+            second = field.inverse(second);
             // We multiply by i's inverse to get the first part of the sum and then multiply by the second part.
-            r[i] = (first.multiply(second)).mod(F);
+            r[i] = field.multiply(first, second);
+        }
+        return r;
+    }
+
+    /*
+    The recombination vectors only depend on the set of good shares, which almost always is the first degree+1 shares.
+    Those are computed in the constructor and kept in firstRecombination[degree], the vectors of other sets are
+    computed the first time they are needed and kept in otherRecombination.
+     */
+    private long[] recombinationOf(int[] goodidx) {
+        int degree = goodidx.length - 1;
+        if (goodidx[degree] == degree && degree < firstRecombination.length)
+            return firstRecombination[degree];
+
+        BitSet key = new BitSet(n);
+        for (int i : goodidx) key.set(i);
+        long[] r = otherRecombination.get(key);
+        if (r == null) {
+            r = recombination(goodidx);
+            otherRecombination.putIfAbsent(key, r);
         }
         return r;
     }
 
     // Interpolation of shares to get the secret back.
-    public BigInteger interpolation(int t, BigInteger[] shares) {
+    public long interpolation(int t, long[] shares) {
         int[] goodidxs = indexOfGoodShares(t, shares);
-        BigInteger[] r = recombination(goodidxs);
+        long[] r = recombinationOf(goodidxs);
 
         // Compute sum_i ri [h(i);fi]_t
-        BigInteger sum = BigInteger.ZERO;
+        long sum = 0;
         for (int i : goodidxs) {
-            sum = sum.add( r[i].multiply(shares[i]) );
+            sum = field.add(sum, field.multiply(r[i], shares[i]));
         }
 
-        return sum.mod(F);
+        return sum;
     }
 
     // Finds the shares which has been set.
-    private int[] indexOfGoodShares(int t, BigInteger[] shares) {
+    private int[] indexOfGoodShares(int t, long[] shares) {
         int[] goodSharesidx = new int[t+1];
         int counter = 0;
-        for (int i = 0; i<t+1; i++) {
+        for (int i = 0; i<n; i++) {
             if (counter >= t+1) break;
-            BigInteger s = shares[i];
+            long s = shares[i];
 
-            if (s == null) continue;
+            if (s == ConnectionHolder.EMPTY) continue;
             goodSharesidx[counter] = i;
             counter++;
         }
@@ -0,0 +1,191 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+Connection to a party on the same machine through a memory-mapped file, which holds a single-producer single-consumer
+ring buffer for each direction. The frames are the same as for SocketConnection: the length of the frame as 4 bytes
+followed by the frame, written into the ring and read out of it without any system calls.
+The file is made by the party with the smaller number. It sends the path of the file to the other party over the
+socket between them, and deletes the file once the other party has mapped it, so nothing is left behind after the
+run. This thread does the setup, so the connections to all the parties are set up in parallel.
+Waiting for data or space spins for a short while and then parks for longer and longer, up to MAX_PARK_NANOS, as the
+other side may be in another process and can not wake us up.
+ */
+public class SharedMemoryConnection extends Thread implements PullConnection {
+    private static final int RING_SIZE = 1 << 20;
+    // A ring is the position of the writer, the position of the reader on its own cache line, and then the data.
+    private static final int WRITE = 0;
+    private static final int READ = 64;
+    private static final int DATA = 128;
+    private static final long MAX_PARK_NANOS = 100_000;
+    private static final VarHandle LONG = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+    private final SocketChannel channel;
+    private final int port;
+    private final boolean creator;
+    private MappedByteBuffer buffer;
+    // The offsets of the rings we write to and read from.
+    private int out;
+    private int in;
+
+    // Guarded by sendLock. The position of our writer.
+    private final Object sendLock = new Object();
+    private long writePos;
+    private final byte[] header = new byte[4];
+    // Guarded by this, only used by the receiving thread.
+    private long readPos;
+    private final byte[] inHeader = new byte[4];
+    private byte[] frame = new byte[1 << 16];
+
+    private volatile boolean running = true;
+
+    // The connection of party partyNr to party peerNr, set up over a channel made by PeerChannels which is closed
+    // when the file is mapped. The port only names the file.
+    SharedMemoryConnection(SocketChannel channel, int port, int partyNr, int peerNr) {
+        this.channel = channel;
+        this.port = port;
+        creator = partyNr < peerNr;
+    }
+
+    public void run() {
+        try (SocketChannel socket = channel) {
+            if (creator) {
+                Path file = Files.createTempFile("mpc-" + port + "-", ".ring");
+                try {
+                    map(file);
+                    DataOutputStream o = new DataOutputStream(Channels.newOutputStream(socket));
+                    o.writeUTF(file.toString());
+                    o.flush();
+                    // Wait until the other party has mapped the file.
+                    new DataInputStream(Channels.newInputStream(socket)).readByte();
+                } finally {
+                    Files.deleteIfExists(file);
+                }
+            } else {
+                map(Path.of(new DataInputStream(Channels.newInputStream(socket)).readUTF()));
+                DataOutputStream o = new DataOutputStream(Channels.newOutputStream(socket));
+                o.writeByte(1);
+                o.flush();
+            }
+        } catch (IOException e) {
+            System.out.println("Not able to set up the shared memory connection!");
+            e.printStackTrace();
+        }
+    }
+
+    private void map(Path file) throws IOException {
+        try (RandomAccessFile f = new RandomAccessFile(file.toFile(), "rw")) {
+            if (creator)
+                f.setLength(2L * (DATA + RING_SIZE));
+            buffer = f.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, 2L * (DATA + RING_SIZE));
+        }
+        out = creator ? 0 : DATA + RING_SIZE;
+        in = creator ? DATA + RING_SIZE : 0;
+    }
+
+    // s is copied into the ring, so it may be changed or shared after the call.
+    public void send(byte[] s) {
+        synchronized (sendLock) {
+            int length = s.length;
+            header[0] = (byte) (length >>> 24);
+            header[1] = (byte) (length >>> 16);
+            header[2] = (byte) (length >>> 8);
+            header[3] = (byte) length;
+            put(header, 4);
+            put(s, length);
+        }
+    }
+
+    // Copies the first length bytes of b into the ring, waiting for the reader where the ring is full.
+    private void put(byte[] b, int length) {
+        int pos = 0;
+        int waits = 0;
+        while (pos < length) {
+            long free = RING_SIZE - (writePos - (long) LONG.getAcquire(buffer, out + READ));
+            if (free == 0) {
+                if (!running)
+                    return;
+                backOff(waits++);
+                continue;
+            }
+            waits = 0;
+            int k = (int) Math.min(free, length - pos);
+            int index = (int) (writePos & (RING_SIZE - 1));
+            int first = Math.min(k, RING_SIZE - index);
+            buffer.put(out + DATA + index, b, pos, first);
+            buffer.put(out + DATA, b, pos + first, k - first);
+            pos += k;
+            writePos += k;
+            LONG.setRelease(buffer, out + WRITE, writePos);
+        }
+    }
+
+    // Copies length bytes out of the ring into b, waiting for the writer. Returns false if the connection is closed.
+    private boolean get(byte[] b, int length) {
+        int pos = 0;
+        int waits = 0;
+        while (pos < length) {
+            long available = (long) LONG.getAcquire(buffer, in + WRITE) - readPos;
+            if (available == 0) {
+                if (!running)
+                    return false;
+                backOff(waits++);
+                continue;
+            }
+            waits = 0;
+            int k = (int) Math.min(available, length - pos);
+            int index = (int) (readPos & (RING_SIZE - 1));
+            int first = Math.min(k, RING_SIZE - index);
+            buffer.get(in + DATA + index, b, pos, first);
+            buffer.get(in + DATA, b, pos + first, k - first);
+            pos += k;
+            readPos += k;
+            LONG.setRelease(buffer, in + READ, readPos);
+        }
+        return true;
+    }
+
+    private static void backOff(int waits) {
+        if (waits < 100)
+            Thread.onSpinWait();
+        else if (waits < 110)
+            Thread.yield();
+        else
+            LockSupport.parkNanos(Math.min(MAX_PARK_NANOS, 1000L << Math.min(waits - 110, 10)));
+    }
+
+    public byte[] receive() {
+        byte[][] res = new byte[1][];
+        return receive(0, (connectionNr, received, length) -> res[0] = Arrays.copyOf(received, length)) ? res[0] : null;
+    }
+
+    public synchronized boolean receive(int connectionNr, FrameHandler handler) {
+        if (!get(inHeader, 4))
+            return false;
+        int length = (inHeader[0] & 0xFF) << 24 | (inHeader[1] & 0xFF) << 16 | (inHeader[2] & 0xFF) << 8 | (inHeader[3] & 0xFF);
+        if (length > frame.length)
+            frame = new byte[length];
+        if (!get(frame, length))
+            return false;
+        handler.onFrame(connectionNr, frame, length);
+        return true;
+    }
+
+    public void close() {
+        // The receiver sees this the next time it finds the ring empty. The mapping goes away with the buffer.
+        running = false;
+    }
+}
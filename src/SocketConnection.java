@@ -1,68 +1,70 @@
 import java.io.*;
-import java.math.BigInteger;
-import java.net.ServerSocket;
-import java.net.Socket;
+import java.net.StandardSocketOptions;
 import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
 import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.LinkedBlockingQueue;
 
-public class SocketConnection extends Thread implements Connection {
-    private Socket connection;
+/*
+A socket connection to one other party, on a channel made by PeerChannels. It starts the writer for the queue of
+frames to send. Every frame is queued and written by the writer, so the protocol threads never do a blocking write
+and never wait for each other or for a slow party, and the frames go out in the order they were sent.
+The socket is a blocking SocketChannel, written and read through a direct buffer of each direction which lives as
+long as the connection. The frames are copied straight into the out buffer, which is written when it is full or the
+frames are flushed, and read in bulk from the in buffer into an array which is reused for the next frame, so sending
+and receiving does not allocate once the arrays have grown to the largest frame.
+ */
+public class SocketConnection implements PullConnection {
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private SocketChannel connection;
 
-    private int port;
-    private String hostname;
-    private BufferedOutputStream out;
-    private DataInputStream in;
+    // Only used by the writer.
+    private final ByteBuffer out = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    // Only used by the receiving thread. in is kept in read mode, frame is the array the frames are read into.
+    private final ByteBuffer in = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private byte[] frame = new byte[BUFFER_SIZE];
 
-    Lock lock = new ReentrantLock();
+    // The frames waiting for the writer. CLOSED is put in the queue by close() to stop the writer.
+    private final LinkedBlockingQueue<byte[]> outQueue = new LinkedBlockingQueue<>();
+    private static final byte[] CLOSED = new byte[0];
+    private Thread writer;
 
-    SocketConnection(int port, String hostname) {
-        this.port = port;
-        this.hostname = hostname;
+    // The connection on a channel made by PeerChannels.
+    SocketConnection(SocketChannel connection) throws IOException {
+        this.connection = connection;
         // String key = "MZygpewJsCpRrfOr";
+        // The frames are flushed when they are complete, so they should not wait for the acks of the last ones.
+        connection.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        in.limit(0);
+        writer = new Thread(this::write);
+        writer.start();
     }
 
-    public void run() {
-        // We try to connect to a server
-        try {
-            // System.out.println("Trying: h " + hostname + "p " + port);
-            connection = new Socket(hostname, port);
-            // System.out.println("Connected to " + hostname + " at port " + port);
-        } catch (IOException e) {
-        }
-
-        // if no connection was found we are the server
-        if(connection == null) {
-            // System.out.println("making server socket at " + port);
-            try {
-                ServerSocket serverSocket = new ServerSocket(port);
-                connection = serverSocket.accept();
-            } catch (IOException e) {
-                // This is probably an exception due to two parties on the same hostname both making
-                // a server on the same port because they are setting up at the same time.
-                e.printStackTrace();
-                System.out.println("IoE");
-            }
-        }
+    // s must not be changed after the call, as it may be written later by the writer. It may be shared with other
+    // connections (see ConnectionHolder.broadcast).
+    public void send(byte[] s) {
+        outQueue.add(s);
+    }
 
-        // Setup the input and output streams
+    // Sends the queued frames in order until close().
+    private void write() {
         try {
-            while(true) {
-                if (!connection.isConnected()) {
-                    sleep(10);
-                    continue;
-                }
-                // out = new DataOutputStream(connection.getOutputStream());
-                out = new BufferedOutputStream(connection.getOutputStream());
-                InputStream inFromServer = connection.getInputStream();
-                in = new DataInputStream(new BufferedInputStream(inFromServer));
-
-                break;
+            while (true) {
+                byte[] s = outQueue.take();
+                if (s == CLOSED)
+                    break;
+                // Frames queued together go out together.
+                do {
+                    writeFrame(s);
+                    s = outQueue.peek() == CLOSED ? null : outQueue.poll();
+                } while (s != null);
+                flushOut();
             }
         } catch (IOException e) {
-            System.out.println("Exception in in-out stream construction");
+            System.out.println("Not able to write to out!");
+            e.printStackTrace();
         } catch (InterruptedException e) {
             e.printStackTrace();
         }
@@ -72,77 +74,70 @@ public class SocketConnection extends Thread implements Connection {
     Sending string s goes as follows:
         1. Encrypt s under the shared AES key.
         2. Write how many bytes the int to send is.
-        3. concat 2. the the byte representation of s and send it away.
+        3. Write the bytes of s after it.
+    The header and s are copied into the out buffer, which is written to the socket whenever it is full.
      */
-    public void send(byte[] s) {
-        long t1 = System.currentTimeMillis();
-        lock.lock();
-        // System.out.println("length of s " + s.length);
-        try {
-            /*String enc_out = AES.encrypt(s);
-            byte[] res_out = new byte[0];
-            if (enc_out != null) {
-                res_out = enc_out.getBytes(StandardCharsets.UTF_8);
-            }*/
-            byte[] numberOfBytesToSend = ByteBuffer.allocate(4).putInt(s.length).array();
-            // We have how long the number of bytes to send is and then all the bytes.
-            byte[] res_out = concatenate(numberOfBytesToSend, s);
-            String r = new String(res_out, StandardCharsets.UTF_8);
-            out.write(res_out);
-            out.flush();
-        } catch (IOException e) {
-            System.out.println("Not able to write to out!");
-            e.printStackTrace();
+    private void writeFrame(byte[] s) throws IOException {
+        /*String enc_out = AES.encrypt(s);
+        byte[] res_out = new byte[0];
+        if (enc_out != null) {
+            res_out = enc_out.getBytes(StandardCharsets.UTF_8);
+        }*/
+        if (out.remaining() < 4)
+            flushOut();
+        out.putInt(s.length);
+        int pos = 0;
+        while (true) {
+            int k = Math.min(out.remaining(), s.length - pos);
+            out.put(s, pos, k);
+            pos += k;
+            if (pos == s.length)
+                break;
+            flushOut();
         }
-        lock.unlock();
-        long t2 = System.currentTimeMillis();
-        // System.out.println("time send " + (t2-t1));
     }
 
-    private static byte[] concatenate(byte[] first, byte[] second) {
-        byte[] result = Arrays.copyOf(first, first.length + second.length);
-        System.arraycopy(second, 0, result, first.length, second.length);
-        return result;
-    }
-    private boolean running = true;
-    public synchronized String receive() {
-        byte[] length_bytes = new byte[4];
-        while(running) {
-            try {
-                if ((in.available()>0)) break;
-                sleep(10);
-            } catch (IOException e) {
-                return null;
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            }
+    // Writes what is in the out buffer to the socket.
+    private void flushOut() throws IOException {
+        out.flip();
+        while (out.hasRemaining()) {
+            connection.write(out);
         }
+        out.clear();
+    }
+
+    private volatile boolean running = true;
+
+    // Blocks until a complete frame has arrived, so the frame is handed on as soon as it is received. The frame is
+    // copied out of the reused array, receive(connectionNr, handler) is the version which does not allocate.
+    public byte[] receive() {
+        byte[][] res = new byte[1][];
+        return receive(0, (connectionNr, received, length) -> res[0] = Arrays.copyOf(received, length)) ? res[0] : null;
+    }
+
+    public synchronized boolean receive(int connectionNr, FrameHandler handler) {
         if(!running)
-            return null;
-        long t1 = System.currentTimeMillis();
-        for (int i = 0; i < 4; i++) {
-            try {
-                // Either this is an error or we are done
-                length_bytes[i] = in.readByte();
-            } catch (IOException e) {
-                return null;
-            }
-        }
-        long t2 = System.currentTimeMillis();
-        int length = new BigInteger(length_bytes).intValue();
-        byte[] in_bytes = new byte[length];
-        t1 = System.currentTimeMillis();
+            return false;
         try {
-            in.readFully(in_bytes);
+            fill(4);
+            int length = in.getInt();
+            if (length > frame.length)
+                frame = new byte[length];
+            int pos = 0;
+            while (pos < length) {
+                if (!in.hasRemaining())
+                    fill(1);
+                int k = Math.min(in.remaining(), length - pos);
+                in.get(frame, pos, k);
+                pos += k;
+            }
+            // The bytes are handed on as they are, since a binary frame is not valid UTF-8.
+            handler.onFrame(connectionNr, frame, length);
+            return true;
         } catch (IOException e) {
-            // Either this is an error or the connection is terminated
-            return null;
+            // Either this is an error or the connection is terminated by close()
+            return false;
         }
-        t2 = System.currentTimeMillis();
-        String received = new String(in_bytes, StandardCharsets.UTF_8);
-        // System.out.println("rec " + received);
-        t1 = System.currentTimeMillis();
-        return received;
 /*
         String decrypt = AES.decrypt(received);
         if (decrypt.equals("")) {
@@ -152,14 +147,27 @@ public class SocketConnection extends Thread implements Connection {
 */
     }
 
+    // Reads from the socket until at least k bytes are in the in buffer.
+    private void fill(int k) throws IOException {
+        if (in.remaining() >= k)
+            return;
+        in.compact();
+        while (in.position() < k) {
+            if (connection.read(in) == -1)
+                throw new EOFException();
+        }
+        in.flip();
+    }
+
     public void close() {
         try {
             running = false;
-            out.flush();
-            in.close();
-            out.close();
+            // Let the writer send the queued frames first.
+            outQueue.add(CLOSED);
+            writer.join();
+            // Closing the socket wakes up a receive() blocked in a read.
             connection.close();
-        } catch (IOException e) {
+        } catch (IOException | InterruptedException e) {
             e.printStackTrace();
         }
     }
@@ -64,7 +64,7 @@ public class Test_Protocol_nP extends Thread {
         circuit = new Gate[]{in1, in2, mult2, out1, out2, out3};
 
 
-        ImportCircuit imp = new ImportCircuit();
+        ImportCircuit imp = new ImportCircuit(Field.of(F));
         circuit = imp.importCircuit("Test_Circuits/adder_32bit.txt");
         circuit = mergeRec(circuit, parallelCircuits);
 
@@ -142,6 +142,10 @@ public class Test_Protocol_nP extends Thread {
         int n = 3;
         int protocolNr = 3;
         int nrParallel = 128;
+        // Optional first argument choosing the wire format of the shares, "text" (default) or "binary".
+        ConnectionHolder.wireFormat = args.length > 0 ? WireFormat.valueOf(args[0].toUpperCase()) : WireFormat.TEXT;
+        // Optional second argument choosing the transport, "socket" (default), "nio" or "shared_memory".
+        ConnectionHolder.transport = args.length > 1 ? Transport.valueOf(args[1].toUpperCase()) : Transport.SOCKET;
         int nrIn = 32*nrParallel;
         BigInteger[] in = new BigInteger[nrIn];
 
@@ -0,0 +1,8 @@
+// How the connections to the other parties are made.
+// SOCKET uses a SocketConnection and a receiver thread per party, NIO multiplexes all the parties on one selector thread.
+// MEMORY connects parties running in the same JVM through in-memory queues, see MemoryConnection.
+// SHARED_MEMORY connects the parties with the same hostname as ours through memory-mapped ring buffers, see
+// SharedMemoryConnection, and the others as SOCKET.
+public enum Transport {
+    SOCKET, NIO, MEMORY, SHARED_MEMORY
+}
@@ -1,36 +1,34 @@
-import java.math.BigInteger;
-
 public class Triples {
-    BigInteger a;
-    BigInteger b;
-    BigInteger c;
+    long a;
+    long b;
+    long c;
 
-    public BigInteger getA() {
+    public long getA() {
         return a;
     }
 
-    public void setA(BigInteger a) {
+    public void setA(long a) {
         this.a = a;
     }
 
-    public BigInteger getB() {
+    public long getB() {
         return b;
     }
 
-    public void setB(BigInteger b) {
+    public void setB(long b) {
         this.b = b;
     }
 
-    public BigInteger getC() {
+    public long getC() {
         return c;
     }
 
-    public void setC(BigInteger c) {
+    public void setC(long c) {
         this.c = c;
     }
 
 
-    public void setABC(BigInteger a, BigInteger b, BigInteger c) {
+    public void setABC(long a, long b, long c) {
         this.a = a;
         this.b = b;
         this.c = c;
@@ -1,3 +1,3 @@
 public enum Type {
-    INPUT, OUTPUT, MULT, CONST, ADD
+    INPUT, OUTPUT, MULT, CONST, ADD, LINEAR, DOT
 }
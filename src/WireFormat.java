@@ -0,0 +1,5 @@
+// The encoding used for the share messages send between the parties.
+// TEXT is the original "pid#value&pid#value" format, BINARY uses varint pids and fixed-width field elements.
+public enum WireFormat {
+    TEXT, BINARY
+}